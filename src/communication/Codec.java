@@ -0,0 +1,42 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encoding used to send objects through ObjectOutputStream_DS and to
+ * receive them through ObjectInputStream_DS.
+ * Both ends of a connection have to use the same codec.
+ */
+public interface Codec {
+
+	/**
+	 * @return name used to select the codec (see Codecs)
+	 */
+	String getName();
+
+	CodecOutput newOutput(OutputStream out) throws IOException;
+
+	CodecInput newInput(InputStream in) throws IOException;
+}
@@ -0,0 +1,68 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the available codecs.
+ * The default codec is the one used by ObjectOutputStream_DS and
+ * ObjectInputStream_DS when no codec is specified (Java serialization
+ * unless another one is selected).
+ */
+public class Codecs {
+	private static final ConcurrentHashMap<String, Codec> codecs = new ConcurrentHashMap<String, Codec>();
+	private static volatile Codec defaultCodec;
+
+	static {
+		defaultCodec = new JavaCodec();
+		register(defaultCodec);
+	}
+
+	public static void register(Codec codec){
+		codecs.put(codec.getName(), codec);
+	}
+
+	/**
+	 * @param name
+	 * @return the codec registered with name, or null if there is no such codec
+	 */
+	public static Codec get(String name){
+		return codecs.get(name);
+	}
+
+	public static Codec getDefault(){
+		return defaultCodec;
+	}
+
+	/**
+	 * selects the default codec
+	 * @param name
+	 * @throws IllegalArgumentException if there is no codec registered with name
+	 */
+	public static void setDefault(String name){
+		Codec codec = codecs.get(name);
+		if (codec == null) {
+			throw new IllegalArgumentException("Unknown codec: " + name);
+		}
+		defaultCodec = codec;
+	}
+}
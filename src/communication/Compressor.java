@@ -0,0 +1,58 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package communication;
+
+import java.io.IOException;
+
+/**
+ * Compression of the frames sent through a FramedOutputStream.
+ * Implementations must be thread safe.
+ */
+public interface Compressor {
+
+	/**
+	 * @return name used to negotiate the compressor (see Compressors)
+	 */
+	String getName();
+
+	/**
+	 * @return identifier (1..254) of the compressor in the frames (255 tags raw frames)
+	 */
+	int getId();
+
+	/**
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return the compressed bytes
+	 */
+	byte[] compress(byte[] data, int offset, int length);
+
+	/**
+	 * @param data compressed bytes
+	 * @param offset
+	 * @param length
+	 * @param dest destination of the decompressed bytes (its length is the original length)
+	 * @throws IOException if data is corrupted
+	 */
+	void decompress(byte[] data, int offset, int length, byte[] dest) throws IOException;
+}
@@ -0,0 +1,66 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package communication;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the available compressors (by name and by frame identifier).
+ */
+public class Compressors {
+	private static final ConcurrentHashMap<String, Compressor> byName = new ConcurrentHashMap<String, Compressor>();
+	private static final Compressor[] byId = new Compressor[256];
+
+	static {
+		register(new DeflateCompressor());
+	}
+
+	public static synchronized void register(Compressor compressor){
+		byName.put(compressor.getName(), compressor);
+		byId[compressor.getId()] = compressor;
+	}
+
+	/**
+	 * @param name
+	 * @return the compressor registered with name, or null if there is no such compressor
+	 */
+	public static Compressor get(String name){
+		return name == null ? null : byName.get(name);
+	}
+
+	/**
+	 * @param id
+	 * @return the compressor with identifier id, or null if there is no such compressor
+	 */
+	static synchronized Compressor get(int id){
+		return byId[id];
+	}
+
+	/**
+	 * @param local compressor used by this side (null if none)
+	 * @param accepted name of the compressor accepted by the other side (null if none)
+	 * @return the compressor to use when sending to the other side (null if frames are not compressed)
+	 */
+	public static Compressor negotiate(Compressor local, String accepted){
+		return local != null && local.getName().equals(accepted) ? local : null;
+	}
+}
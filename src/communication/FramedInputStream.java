@@ -0,0 +1,220 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package communication;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Reading end of a FramedOutputStream: returns the payload of the
+ * frames (decompressed if needed).
+ *
+ * It never reads beyond the frame that is being consumed, so that the
+ * bytes of the next message on a connection are left in the connection
+ * even if the reader on top of this stream buffers its input. Raw
+ * frames are not read as part of the stream: they must be requested
+ * (see nextRawFrame) once the previous frame has been consumed.
+ */
+public class FramedInputStream extends InputStream {
+
+	private final DataInputStream in;
+	private byte[] frame = new byte[0];
+	private int pos;
+	private int limit;
+	private final byte[] header = new byte[4];
+
+	// statistics
+	private long decompressedFrames;
+	private long decompressionNanos;
+
+	public FramedInputStream(InputStream in) {
+		this.in = new DataInputStream(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextFrame()) {
+			return -1;
+		}
+		return frame[pos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextFrame()) {
+			return -1;
+		}
+		int n = Math.min(len, limit - pos);
+		System.arraycopy(frame, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	/**
+	 * @return bytes left in the current frame
+	 */
+	@Override
+	public int available() {
+		return limit - pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Reads the header of the next frame, that must be a raw one (see
+	 * FramedOutputStream.transferFrom). Its payload must be read completely
+	 * from the returned stream before reading anything else from this one.
+	 * @return the payload of the frame, read straight from the connection
+	 * @throws IOException if the current frame has not been consumed or the
+	 * next one is not a raw frame
+	 */
+	public InputStream nextRawFrame() throws IOException {
+		if (pos != limit) {
+			throw new StreamCorruptedException("Raw frame expected: " + (limit - pos) + " bytes left in the current frame");
+		}
+		int tag = in.read();
+		if (tag != FramedOutputStream.RAW) {
+			throw new StreamCorruptedException(tag < 0 ? "Raw frame expected: end of stream" : "Raw frame expected: " + tag);
+		}
+		long length = ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+		if (length < 0) {
+			throw new StreamCorruptedException("Invalid frame length: " + length);
+		}
+		return new RawFrame(length);
+	}
+
+	/**
+	 * reads the next frame if the current one has been consumed
+	 * @return false at the end of the stream
+	 */
+	private boolean nextFrame() throws IOException {
+		while (pos == limit) {
+			int tag = in.read();
+			if (tag < 0) {
+				return false;
+			}
+			if (tag == FramedOutputStream.RAW) {
+				throw new StreamCorruptedException("Unexpected raw frame");
+			}
+			int length = readInt();
+			if (length < 0 || length > FramedOutputStream.MAX_FRAME_SIZE) {
+				throw new StreamCorruptedException("Invalid frame length: " + length);
+			}
+			if (tag == FramedOutputStream.PLAIN) {
+				frame = length > frame.length ? new byte[length] : frame;
+				in.readFully(frame, 0, length);
+				limit = length;
+			} else {
+				Compressor compressor = Compressors.get(tag);
+				if (compressor == null) {
+					throw new StreamCorruptedException("Unknown compressor: " + tag);
+				}
+				int original = readInt();
+				if (original < 0 || original > FramedOutputStream.MAX_FRAME_SIZE) {
+					throw new StreamCorruptedException("Invalid decompressed frame length: " + original);
+				}
+				byte[] compressed = new byte[length];
+				in.readFully(compressed);
+				long start = System.nanoTime();
+				byte[] decompressed = new byte[original];
+				compressor.decompress(compressed, 0, length, decompressed);
+				decompressionNanos += System.nanoTime() - start;
+				decompressedFrames++;
+				frame = decompressed;
+				limit = original;
+			}
+			pos = 0;
+		}
+		return true;
+	}
+
+	// the connection is not buffered: the 4 bytes are read at once
+	private int readInt() throws IOException {
+		in.readFully(header);
+		return ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+	}
+
+	/**
+	 * payload of a raw frame: the next length bytes of the connection
+	 */
+	private class RawFrame extends InputStream {
+		private long remaining;
+
+		RawFrame(long length) {
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n < 0) {
+				throw new EOFException();
+			}
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(remaining, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * @return summary of the decompression of the frames received so far
+	 */
+	public String getStatistics() {
+		return String.format("%d frames decompressed in %.3f ms", decompressedFrames, decompressionNanos / 1e6);
+	}
+
+	/**
+	 * @return true if some frame has been decompressed
+	 */
+	public boolean hasDecompressed() {
+		return decompressedFrames > 0;
+	}
+}
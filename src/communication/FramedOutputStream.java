@@ -0,0 +1,217 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package communication;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Groups the bytes written between two flushes (a message, for the
+ * codecs) into a frame: a tag, the length and the payload. Once a
+ * compressor has been set, frames of at least threshold bytes are
+ * compressed (unless compression does not make them smaller).
+ *
+ * Frame format: tag (1 byte: 0 for a plain frame, the compressor
+ * identifier otherwise), payload length (4 bytes), original length
+ * (4 bytes, only in compressed frames) and payload.
+ *
+ * Raw frames (tag RAW, 8-byte length) carry bulk data that is written
+ * straight to the connection, bypassing the frame buffer and the
+ * compressor (see transferFrom and writeRaw).
+ */
+public class FramedOutputStream extends OutputStream {
+
+	static final int PLAIN = 0;
+	static final int RAW = 0xFF;
+
+	/**
+	 * maximum length of the payload of a frame (and of a compressed frame
+	 * once decompressed); raw frames are not limited
+	 */
+	public static final int MAX_FRAME_SIZE = 64 << 20;
+
+	private final OutputStream connection;
+	private final OutputStream out;
+	private byte[] frame = new byte[1024];
+	private int count;
+
+	private Compressor compressor;
+	private int threshold;
+
+	// statistics: bytes of the compressed frames before and after compression
+	private long compressedFrames;
+	private long originalBytes;
+	private long compressedBytes;
+	private long compressionNanos;
+
+	public FramedOutputStream(OutputStream out) {
+		this.connection = out;
+		this.out = new BufferedOutputStream(out);
+	}
+
+	/**
+	 * @param compressor compressor to use (null: frames are not compressed)
+	 * @param threshold minimum size (in bytes) of a frame to be compressed
+	 */
+	public void setCompressor(Compressor compressor, int threshold) {
+		this.compressor = compressor;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureCapacity(count + 1);
+		frame[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, frame, count, len);
+		count += len;
+	}
+
+	/**
+	 * sends the bytes written since the last flush as a frame
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (count > 0) {
+			writeFrame();
+			count = 0;
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		out.close();
+	}
+
+	/**
+	 * sends count bytes of file (from position) as a raw frame. They are
+	 * transferred by the file channel (FileChannel.transferTo), without
+	 * copying them into the frame buffer.
+	 * @param file
+	 * @param position
+	 * @param count
+	 * @param target channel of the connection (null: the connection is
+	 * wrapped in a channel; the transfer then goes through a buffer)
+	 * @throws IOException
+	 */
+	public void transferFrom(FileChannel file, long position, long count, WritableByteChannel target) throws IOException {
+		writeRawHeader(count);
+		WritableByteChannel channel = target == null ? Channels.newChannel(connection) : target;
+		long end = position + count;
+		while (position < end) {
+			long n = file.transferTo(position, end - position, channel);
+			if (n <= 0 && position >= file.size()) {
+				throw new IOException("File truncated during the transfer: " + position + " of " + end + " bytes");
+			}
+			position += n;
+		}
+		connection.flush();
+	}
+
+	/**
+	 * sends len bytes of b as a raw frame (without copying them into the
+	 * frame buffer)
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	public void writeRaw(byte[] b, int off, int len) throws IOException {
+		writeRawHeader(len);
+		Channels.newChannel(connection).write(ByteBuffer.wrap(b, off, len));
+		connection.flush();
+	}
+
+	// the pending frame goes first; the payload is written to the connection directly
+	private void writeRawHeader(long length) throws IOException {
+		flush();
+		out.write(RAW);
+		writeInt((int) (length >>> 32));
+		writeInt((int) length);
+		out.flush();
+	}
+
+	private void writeFrame() throws IOException {
+		if (count > MAX_FRAME_SIZE) {
+			throw new IOException("Frame too large: " + count + " bytes");
+		}
+		if (compressor != null && count >= threshold) {
+			long start = System.nanoTime();
+			byte[] compressed = compressor.compress(frame, 0, count);
+			compressionNanos += System.nanoTime() - start;
+			if (compressed.length < count) {
+				compressedFrames++;
+				originalBytes += count;
+				compressedBytes += compressed.length;
+				out.write(compressor.getId());
+				writeInt(compressed.length);
+				writeInt(count);
+				out.write(compressed);
+				return;
+			}
+		}
+		out.write(PLAIN);
+		writeInt(count);
+		out.write(frame, 0, count);
+	}
+
+	private void writeInt(int v) throws IOException {
+		out.write(v >>> 24);
+		out.write(v >>> 16);
+		out.write(v >>> 8);
+		out.write(v);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > frame.length) {
+			frame = Arrays.copyOf(frame, Math.max(capacity, frame.length << 1));
+		}
+	}
+
+	/**
+	 * @return true if some frame has been compressed
+	 */
+	public boolean hasCompressed() {
+		return compressedFrames > 0;
+	}
+
+	/**
+	 * @return summary of the compression of the frames sent so far
+	 */
+	public String getStatistics() {
+		double ratio = compressedBytes == 0 ? 1 : (double) originalBytes / compressedBytes;
+		return String.format("%d frames compressed: %d -> %d bytes (ratio %.2f) in %.3f ms",
+				compressedFrames, originalBytes, compressedBytes, ratio, compressionNanos / 1e6);
+	}
+}
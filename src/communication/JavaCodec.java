@@ -0,0 +1,73 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec based on Java serialization (ObjectOutputStream / ObjectInputStream).
+ */
+public class JavaCodec implements Codec {
+
+	public static final String NAME = "java";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public CodecOutput newOutput(OutputStream outStream) throws IOException {
+		final ObjectOutputStream out = new ObjectOutputStream(outStream);
+		return new CodecOutput() {
+			@Override
+			public void writeObject(Object obj) throws IOException {
+				out.writeObject(obj);
+				out.flush();
+			}
+
+			@Override
+			public void close() throws IOException {
+				out.close();
+			}
+		};
+	}
+
+	@Override
+	public CodecInput newInput(InputStream inStream) throws IOException {
+		final ObjectInputStream in = new ObjectInputStream(inStream);
+		return new CodecInput() {
+			@Override
+			public Object readObject() throws IOException, ClassNotFoundException {
+				return in.readObject();
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+	}
+}
@@ -22,7 +22,6 @@ package communication;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
 
 import recipes_service.activity_simulation.SimulationData;
 
@@ -35,10 +34,21 @@ import recipes_service.activity_simulation.SimulationData;
  *
  */
 public class ObjectInputStream_DS {
-	private ObjectInputStream in;
+	private CodecInput in;
 	
 	public ObjectInputStream_DS(InputStream inStream) throws IOException{
-		in = new ObjectInputStream(inStream);
+		this(inStream, Codecs.getDefault());
+	}
+
+	public ObjectInputStream_DS(InputStream inStream, Codec codec) throws IOException{
+		in = codec.newInput(inStream);
+	}
+
+	/**
+	 * @return reading end of the codec (to set codec-specific options)
+	 */
+	public CodecInput getCodecInput(){
+		return in;
 	}
 
 	public Object readObject() throws IOException, ClassNotFoundException{
@@ -21,7 +21,6 @@
 package communication;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 import recipes_service.activity_simulation.SimulationData;
@@ -35,10 +34,14 @@ import recipes_service.activity_simulation.SimulationData;
  *
  */
 public class ObjectOutputStream_DS {
-	private ObjectOutputStream out;
+	private CodecOutput out;
 	
 	public ObjectOutputStream_DS(OutputStream outStream) throws IOException{
-		this.out = new ObjectOutputStream(outStream);
+		this(outStream, Codecs.getDefault());
+	}
+
+	public ObjectOutputStream_DS(OutputStream outStream, Codec codec) throws IOException{
+		this.out = codec.newOutput(outStream);
 	}
 
 	public void writeObject(Object obj) throws IOException{
@@ -0,0 +1,158 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the encodings written by WireOutput.
+ */
+public class WireInput {
+	/**
+	 * default maximum length of an item (bytes of a string or an object,
+	 * number of elements of a collection)
+	 */
+	public static final int MAX_LENGTH = 64 << 20;
+
+	private final DataInputStream in;
+	private final List<String> interned = new ArrayList<String>();
+	private final int maxLength;
+
+	public WireInput(InputStream in){
+		this(in, MAX_LENGTH);
+	}
+
+	/**
+	 * @param in
+	 * @param maxLength lengths read from in that are greater than this are
+	 * considered corrupted (see readLength)
+	 */
+	public WireInput(InputStream in, int maxLength){
+		this.in = new DataInputStream(in);
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * @return maximum length accepted by readLength
+	 */
+	public int getMaxLength(){
+		return maxLength;
+	}
+
+	public int readByte() throws IOException{
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	public void readFully(byte[] bytes) throws IOException{
+		in.readFully(bytes);
+	}
+
+	/**
+	 * discards the next length bytes
+	 */
+	public void skipFully(int length) throws IOException{
+		while (length > 0) {
+			int skipped = in.skipBytes(length);
+			if (skipped == 0) {
+				// skipBytes does not tell end of stream from a stream that cannot skip
+				readByte();
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+	public long readVarLong() throws IOException{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("Malformed varint");
+	}
+
+	public int readVarInt() throws IOException{
+		return (int) readVarLong();
+	}
+
+	/**
+	 * reads a length (of bytes or of elements) written with writeVarInt,
+	 * before anything is allocated for it
+	 * @return the length
+	 * @throws StreamCorruptedException if it is negative or greater than the
+	 * maximum length
+	 */
+	public int readLength() throws IOException{
+		long length = readVarLong();
+		if (length < 0 || length > maxLength) {
+			throw new StreamCorruptedException("Invalid length: " + length);
+		}
+		return (int) length;
+	}
+
+	public long readSignedVarLong() throws IOException{
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public String readString() throws IOException{
+		int length = readLength();
+		if (length == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length - 1];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public String readInternedString() throws IOException{
+		int position = readVarInt();
+		if (position > 0) {
+			if (position > interned.size()) {
+				throw new StreamCorruptedException("Unknown interned string: " + position);
+			}
+			return interned.get(position - 1);
+		}
+		String s = readString();
+		if (s != null) {
+			interned.add(s);
+		}
+		return s;
+	}
+
+	public void close() throws IOException{
+		in.close();
+	}
+}
@@ -0,0 +1,111 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Primitive encodings used by binary codecs: varints, length-prefixed
+ * UTF-8 strings and strings interned in a per-stream table (a string
+ * already sent is written as its position in the table).
+ */
+public class WireOutput {
+	private final DataOutputStream out;
+	private final Map<String, Integer> interned = new HashMap<String, Integer>();
+
+	public WireOutput(OutputStream out){
+		this.out = new DataOutputStream(out);
+	}
+
+	public void writeByte(int b) throws IOException{
+		out.write(b);
+	}
+
+	public void writeBytes(byte[] bytes, int offset, int length) throws IOException{
+		out.write(bytes, offset, length);
+	}
+
+	/**
+	 * unsigned LEB128: 7 bits per byte, least significant group first
+	 */
+	public void writeVarLong(long value) throws IOException{
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	public void writeVarInt(int value) throws IOException{
+		writeVarLong(value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * zigzag encoding, so that small negative values (e.g. the null
+	 * sequence number) are also short
+	 */
+	public void writeSignedVarLong(long value) throws IOException{
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * length (plus one, 0 meaning null) followed by the UTF-8 bytes
+	 */
+	public void writeString(String s) throws IOException{
+		if (s == null) {
+			writeVarInt(0);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length + 1);
+		out.write(bytes);
+	}
+
+	/**
+	 * 0 followed by the string the first time it is written; afterwards,
+	 * its position in the table plus one
+	 */
+	public void writeInternedString(String s) throws IOException{
+		Integer position = s == null ? null : interned.get(s);
+		if (position != null) {
+			writeVarInt(position + 1);
+			return;
+		}
+		writeVarInt(0);
+		writeString(s);
+		if (s != null) {
+			interned.put(s, interned.size());
+		}
+	}
+
+	public void flush() throws IOException{
+		out.flush();
+	}
+
+	public void close() throws IOException{
+		out.close();
+	}
+}
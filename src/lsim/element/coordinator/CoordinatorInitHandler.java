@@ -62,8 +62,33 @@ public class CoordinatorInitHandler implements HandlerInitCoordinator {
 		lsim.addInitParamToAllWorkers("serverBasePort",params.get("serverBasePort"));
 		lsim.addInitParamToAllWorkers("sessionDelay",params.get("sessionDelay"));
 		lsim.addInitParamToAllWorkers("sessionPeriod",params.get("sessionPeriod"));
+		// sessionPeriodMin and sessionPeriodMax are optional: both default to sessionPeriod (fixed period)
+		lsim.addInitParamToAllWorkers("sessionPeriodMin",params.get("sessionPeriodMin") != null ? params.get("sessionPeriodMin") : params.get("sessionPeriod"));
+		lsim.addInitParamToAllWorkers("sessionPeriodMax",params.get("sessionPeriodMax") != null ? params.get("sessionPeriodMax") : params.get("sessionPeriod"));
 		lsim.addInitParamToAllWorkers("numSes",params.get("numSes"));
 		lsim.addInitParamToAllWorkers("propDegree",params.get("propDegree"));
+		lsim.addInitParamToAllWorkers("eagerPush",params.get("eagerPush"));
+		lsim.addInitParamToAllWorkers("ackDelta",params.get("ackDelta"));
+		lsim.addInitParamToAllWorkers("codec",params.get("codec"));
+		lsim.addInitParamToAllWorkers("sessionMode",params.get("sessionMode"));
+		lsim.addInitParamToAllWorkers("compression",params.get("compression"));
+		lsim.addInitParamToAllWorkers("compressionThreshold",params.get("compressionThreshold"));
+		lsim.addInitParamToAllWorkers("persistentConnections",params.get("persistentConnections"));
+		lsim.addInitParamToAllWorkers("maxConcurrentSessions",params.get("maxConcurrentSessions"));
+		lsim.addInitParamToAllWorkers("sessionRoundDeadline",params.get("sessionRoundDeadline"));
+		lsim.addInitParamToAllWorkers("sessionTimeout",params.get("sessionTimeout"));
+		lsim.addInitParamToAllWorkers("connectTimeout",params.get("connectTimeout"));
+		lsim.addInitParamToAllWorkers("readTimeout",params.get("readTimeout"));
+		lsim.addInitParamToAllWorkers("digestHandshake",params.get("digestHandshake"));
+		lsim.addInitParamToAllWorkers("partnerSelection",params.get("partnerSelection"));
+		lsim.addInitParamToAllWorkers("partnerBackoff",params.get("partnerBackoff"));
+		lsim.addInitParamToAllWorkers("walDirectory",params.get("walDirectory"));
+		lsim.addInitParamToAllWorkers("walSync",params.get("walSync"));
+		lsim.addInitParamToAllWorkers("walSyncInterval",params.get("walSyncInterval"));
+		lsim.addInitParamToAllWorkers("walSegmentSize",params.get("walSegmentSize"));
+		lsim.addInitParamToAllWorkers("checkpointInterval",params.get("checkpointInterval"));
+		lsim.addInitParamToAllWorkers("bootstrap",params.get("bootstrap"));
+		lsim.addInitParamToAllWorkers("bootstrapThreshold",params.get("bootstrapThreshold"));
 		lsim.addInitParamToAllWorkers("simulationStop",params.get("simulationStop"));
 		lsim.addInitParamToAllWorkers("executionStop",params.get("executionStop"));
 		lsim.addInitParamToAllWorkers("simulationDelay",params.get("simulationDelay"));
@@ -20,6 +20,7 @@
 
 package lsim.element.recipes_service;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 //import java.io.ObjectOutputStream;
@@ -28,6 +29,8 @@ import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.Random;
 
+import communication.Codecs;
+import communication.Compressors;
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import lsim.application.handler.HandlerInitWorker;
 import lsim.library.api.LSimFactory;
@@ -37,7 +40,14 @@ import lsim.library.api.LSimParameters;
 import recipes_service.ServerData;
 import recipes_service.ServerPartnerSide;
 import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.BinaryMessageCodec;
 import recipes_service.communication.Host;
+import recipes_service.tsae.persistence.SyncPolicy;
+import recipes_service.tsae.sessions.BackoffPartnerSelection;
+import recipes_service.tsae.sessions.MostLaggingPartnerSelection;
+import recipes_service.tsae.sessions.PartnerSelection;
+import recipes_service.tsae.sessions.RoundRobinPartnerSelection;
+import recipes_service.tsae.sessions.UniformPartnerSelection;
 import util.Serializer;
 
 /**
@@ -70,10 +80,116 @@ public class WorkerInitHandler implements HandlerInitWorker {
 		// params 1 and 2: TSAE parameters 
 		serverData.setSessionDelay(Long.parseLong((String)params.get("sessionDelay"))*1000);
 		serverData.setSessionPeriod(Long.parseLong((String)params.get("sessionPeriod"))*1000);
+		// "sessionPeriodMin" and "sessionPeriodMax" (seconds): when min < max the session period adapts
+		// (between both bounds) to the divergence observed by the server
+		if (params.get("sessionPeriodMin") != null && params.get("sessionPeriodMax") != null) {
+			serverData.setSessionPeriodBounds(Long.parseLong((String)params.get("sessionPeriodMin"))*1000,
+					Long.parseLong((String)params.get("sessionPeriodMax"))*1000);
+		}
 		
 		serverData.setNumberSessions(Integer.parseInt((String)params.get("numSes"))*1000);
 		serverData.setPropagationDegree(Integer.parseInt((String)params.get("propDegree"))*1000);
 
+		// "ackDelta": "On" sends only the rows of the ack that the partner may not have; any other
+		// value (or no value) sends the whole ack in each TSAE session
+		serverData.getAckBaselines().setEnabled("On".equals(params.get("ackDelta")));
+
+		// "codec": encoding of the messages of TSAE sessions ("java" or "binary").
+		// default value: java
+		Codecs.register(new BinaryMessageCodec());
+		if (params.get("codec") != null) {
+			Codecs.setDefault((String)params.get("codec"));
+		}
+
+		// "compression": compressor of the operations sent in TSAE sessions ("deflate"; any other
+		// value, or no value, disables compression). "compressionThreshold" (bytes): minimum size of a
+		// message to be compressed
+		serverData.setCompressor(Compressors.get((String)params.get("compression")));
+		if (params.get("compressionThreshold") != null) {
+			serverData.setCompressionThreshold(Integer.parseInt((String)params.get("compressionThreshold")));
+		}
+
+		// "sessionMode": "duplex": in TSAE sessions both sides send their operations at the same time;
+		// any other value (or no value): lock-step sessions
+		serverData.setDuplexSessions("duplex".equals(params.get("sessionMode")));
+
+		// "persistentConnections": "On" keeps a connection to each partner for successive TSAE
+		// sessions; any other value (or no value) opens a new connection for each session
+		serverData.getPeerConnections().setPersistent("On".equals(params.get("persistentConnections")));
+
+		// "partnerSelection": how the partners of each round of TSAE sessions are chosen: "mostLagging"
+		// (the ones furthest behind according to the ack first), "roundRobin" or "uniform" (any other value
+		// or no value). "partnerBackoff": "On" leaves aside for a while the partners whose sessions failed
+		PartnerSelection partnerSelection;
+		if ("mostLagging".equals(params.get("partnerSelection"))) {
+			partnerSelection = new MostLaggingPartnerSelection();
+		} else if ("roundRobin".equals(params.get("partnerSelection"))) {
+			partnerSelection = new RoundRobinPartnerSelection(1);
+		} else {
+			partnerSelection = new UniformPartnerSelection();
+		}
+		if ("On".equals(params.get("partnerBackoff"))) {
+			partnerSelection = new BackoffPartnerSelection(partnerSelection, serverData.getSessionPeriod(), 8 * serverData.getSessionPeriod());
+		}
+		serverData.setPartnerSelection(partnerSelection);
+
+		// "eagerPush": "On" pushes new operations to propDegree partners (the configured value, not the
+		// number of sessions set above); any other value (or no value) runs propDegree TSAE sessions
+		// each time a new data is created
+		serverData.setEagerPush("On".equals(params.get("eagerPush")), Integer.parseInt((String)params.get("propDegree")));
+
+		// "digestHandshake": "On" starts each TSAE session exchanging digests and ends it there if both
+		// sides are in sync; any other value (or no value) always exchanges summaries and acks
+		serverData.setDigestHandshake("On".equals(params.get("digestHandshake")));
+
+		// "maxConcurrentSessions": maximum number of TSAE sessions started by this server that run at the same time
+		// "sessionRoundDeadline" (seconds): maximum time that a round of TSAE sessions waits for its sessions
+		if (params.get("maxConcurrentSessions") != null) {
+			serverData.setMaxConcurrentSessions(Integer.parseInt((String)params.get("maxConcurrentSessions")));
+		}
+		if (params.get("sessionRoundDeadline") != null) {
+			serverData.setSessionRoundDeadline(Long.parseLong((String)params.get("sessionRoundDeadline"))*1000);
+		}
+		// "sessionTimeout" (seconds): maximum time that a single TSAE session may last
+		// "connectTimeout" and "readTimeout" (seconds): socket timeouts of TSAE sessions
+		if (params.get("sessionTimeout") != null) {
+			serverData.setSessionTimeout(Long.parseLong((String)params.get("sessionTimeout"))*1000);
+		}
+		if (params.get("connectTimeout") != null) {
+			serverData.getPeerConnections().setConnectTimeout(Integer.parseInt((String)params.get("connectTimeout"))*1000);
+		}
+		if (params.get("readTimeout") != null) {
+			serverData.getPeerConnections().setReadTimeout(Integer.parseInt((String)params.get("readTimeout"))*1000);
+		}
+
+		// "walDirectory": directory of the write-ahead log (no value, or an empty one: no write-ahead log).
+		// "walSync": "always", "none" or "interval" (any other value, or no value); "walSyncInterval"
+		// (milliseconds): period of the forces; "walSegmentSize" (KBytes): size of each file of the log;
+		// "checkpointInterval" (seconds): period of the checkpoints of the state (0: no checkpoints)
+		String walDirectory = (String)params.get("walDirectory");
+		if (walDirectory != null && !walDirectory.trim().isEmpty()) {
+			SyncPolicy walSync = SyncPolicy.INTERVAL;
+			if ("always".equals(params.get("walSync"))) {
+				walSync = SyncPolicy.ALWAYS;
+			} else if ("none".equals(params.get("walSync"))) {
+				walSync = SyncPolicy.NONE;
+			}
+			long walSyncInterval = params.get("walSyncInterval") == null ? 1000 : Long.parseLong((String)params.get("walSyncInterval"));
+			int walSegmentSize = params.get("walSegmentSize") == null ? 4096 : Integer.parseInt((String)params.get("walSegmentSize"));
+			serverData.setWriteAheadLog(new File(walDirectory.trim()), walSync, walSyncInterval, walSegmentSize * 1024);
+			if (params.get("checkpointInterval") != null) {
+				serverData.setCheckpointInterval(Long.parseLong((String)params.get("checkpointInterval"))*1000);
+			}
+		}
+
+		// "bootstrap": "On" accepts a snapshot of the state when a partner cannot send the operations this
+		// server misses; any other value (or no value) never accepts snapshots from partners.
+		// "bootstrapThreshold" (operations): a partner that misses more operations is sent a snapshot (0: never)
+		serverData.setBootstrapEnabled("On".equals(params.get("bootstrap")));
+		if (params.get("bootstrapThreshold") != null) {
+			serverData.setBootstrapThreshold(Long.parseLong((String)params.get("bootstrapThreshold")));
+		}
+
 		// params 3 to 10: simulation parameters
 		SimulationData.getInstance().setSimulationStop(Integer.parseInt((String)params.get("simulationStop"))*1000);
 		SimulationData.getInstance().setExecutionStop(Integer.parseInt((String)params.get("executionStop"))*1000);
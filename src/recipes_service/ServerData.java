@@ -20,24 +20,52 @@
 
 package recipes_service;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Timer;
-import java.util.Vector;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import communication.Compressor;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.library.api.LSimLogger;
 import recipes_service.activity_simulation.SimulationData;
 import recipes_service.communication.Host;
 import recipes_service.communication.Hosts;
+import recipes_service.communication.PeerConnectionManager;
 import recipes_service.data.AddOperation;
 import recipes_service.data.Operation;
 import recipes_service.data.OperationType;
 import recipes_service.data.Recipe;
 import recipes_service.data.Recipes;
 import recipes_service.data.RemoveOperation;
+import recipes_service.tsae.data_structures.AckDelta;
 import recipes_service.tsae.data_structures.Log;
+import recipes_service.tsae.data_structures.TSAESnapshot;
 import recipes_service.tsae.data_structures.Timestamp;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
+import recipes_service.tsae.data_structures.Tombstones;
+import recipes_service.tsae.persistence.Checkpoint;
+import recipes_service.tsae.persistence.Checkpointer;
+import recipes_service.tsae.persistence.SyncPolicy;
+import recipes_service.tsae.persistence.WriteAheadLog;
+import recipes_service.tsae.sessions.AckBaselines;
+import recipes_service.tsae.sessions.AdaptiveSessionTimer;
+import recipes_service.tsae.sessions.EagerPush;
+import recipes_service.tsae.sessions.PartnerSelection;
+import recipes_service.tsae.sessions.SessionStats;
 import recipes_service.tsae.sessions.TSAESessionOriginatorSide;
+import recipes_service.tsae.sessions.UniformPartnerSelection;
 /**
  * @author Joan-Manuel Marques
  * December 2012
@@ -58,6 +86,15 @@ public class ServerData {
 	private Log log = null;
 	private TimestampVector summary = null;
 	private TimestampMatrix ack = null;
+
+	// copy of summary and ack used to start TSAE sessions without locking serverData
+	private final AtomicReference<TSAESnapshot> snapshot = new AtomicReference<>();
+
+	// for each partner, lower bound of its ack (to send only the rows of the ack that changed)
+	private final AckBaselines ackBaselines = new AckBaselines();
+
+	// connections to partners used by the TSAE sessions started by this server
+	private final PeerConnectionManager peerConnections = new PeerConnectionManager();
 	
 	// recipes data structure
 	private final Recipes recipes = new Recipes();
@@ -68,24 +105,80 @@ public class ServerData {
 	// propDegree: (default value: 0) number of TSAE sessions done each time a new data is created
 	int propDegree = 0;
 	
+	// true: TSAE sessions started by this server are duplex (both sides send their operations at the same time)
+	private boolean duplexSessions = false;
+
+	// true: TSAE sessions start exchanging a digest of summary and ack, and end there if both sides are in sync
+	private boolean digestHandshake = false;
+
+	// maximum number of TSAE sessions started by this server that run at the same time
+	private int maxConcurrentSessions = 4;
+	// maximum time (in milliseconds) that a round of sessions (sessionWithN) waits for its sessions
+	private long sessionRoundDeadline = 10000;
+	// maximum time (in milliseconds) that a single TSAE session may last (0: no limit)
+	private long sessionTimeout = 30000;
+
+	// true: new local operations are pushed to pushFanout partners (see EagerPush)
+	// instead of running propDegree TSAE sessions for them
+	private boolean eagerPushEnabled = false;
+	private int pushFanout = 0;
+	private EagerPush eagerPush = null;
+
+	// compressor of the operations sent in TSAE sessions (null: no compression), used
+	// if the partner accepts it, for messages of at least compressionThreshold bytes
+	private Compressor compressor = null;
+	private int compressionThreshold = 1024;
+
+	// chooses the partners of each round of TSAE sessions
+	private PartnerSelection partnerSelection = new UniformPartnerSelection();
+
+	// outcome of the TSAE sessions (both as originator and as partner)
+	private final SessionStats sessionStats = new SessionStats();
+
+	// operations on disk (null: the server starts from scratch each time), in a
+	// subdirectory of walDirectory (see setWriteAheadLog)
+	private File walDirectory = null;
+	private SyncPolicy walSyncPolicy = SyncPolicy.INTERVAL;
+	private long walSyncInterval = 1000;
+	private int walSegmentSize = 4 * 1024 * 1024;
+	private WriteAheadLog wal = null;
+	// period (in milliseconds) of the checkpoints of the state (0: no checkpoints)
+	private long checkpointInterval = 60000;
+	private Checkpointer checkpointer = null;
+
+	// true: this server accepts snapshots from its partners when they cannot (or
+	// should not, see bootstrapThreshold) send it the operations (see Bootstrap)
+	private boolean bootstrapEnabled = false;
+	// a partner that misses more than bootstrapThreshold operations is sent a
+	// snapshot instead of the operations (0: only if the log cannot serve it)
+	private long bootstrapThreshold = 0;
+	// partners whose last snapshot has been discarded: they are asked for operations
+	// instead of snapshots until a session with them completes
+	private final Set<String> bootstrapDeclined = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
 	// Participating nodes
 	private Hosts participants;
 
 	// TSAE timers
 	private long sessionDelay;
 	private long sessionPeriod = 10;
+	// bounds of the session period; when minSessionPeriod < maxSessionPeriod the
+	// period adapts to the divergence observed by the server (see AdaptiveSessionTimer)
+	private long minSessionPeriod = -1;
+	private long maxSessionPeriod = -1;
 
-	private Timer tsaeSessionTimer;
+	private ScheduledExecutorService tsaeSessionTimer;
 
 	//
 	TSAESessionOriginatorSide tsae = null;
 
-	// TODO: esborrar aquesta estructura de dades
-	// tombstones: timestamp of removed operations
-	List<Timestamp> tombstones = new Vector<>();
+	// tombstones: timestamps of the recipes removed before being added
+	private Tombstones tombstones = null;
 	
 	// end: true when program should end; false otherwise
-	private boolean end;
+	private volatile boolean end;
+	// actions to run when the program should end (e.g. waking up threads blocked waiting for connections)
+	private final List<Runnable> endListeners = new CopyOnWriteArrayList<Runnable>();
 
 	public ServerData(){
 	}
@@ -99,16 +192,45 @@ public class ServerData {
 		this.log = new Log(participants.getIds());
 		this.summary = new TimestampVector(participants.getIds());
 		this.ack = new TimestampMatrix(participants.getIds());
-		
+		this.tombstones = new Tombstones(participants.getIds());
+		synchronized (this) {
+			if (walDirectory != null) {
+				recover();
+			}
+			this.ack.update(id, summary);
+			publishSnapshot(true);
+		}
+		if (wal != null && checkpointInterval > 0) {
+			checkpointer = new Checkpointer(this, wal, checkpointInterval);
+			checkpointer.start();
+		}
+
+		if (eagerPushEnabled && pushFanout > 0) {
+			eagerPush = new EagerPush(this, pushFanout);
+			eagerPush.start();
+		}
 
 		//  Sets the Timer for TSAE sessions
 		tsae = new TSAESessionOriginatorSide(this);
-		tsaeSessionTimer = new Timer();
-		tsaeSessionTimer.scheduleAtFixedRate(tsae, sessionDelay, sessionPeriod);
+		tsaeSessionTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "TSAESessionTimer");
+			}
+		});
+		if (minSessionPeriod >= 0 && minSessionPeriod < maxSessionPeriod) {
+			new AdaptiveSessionTimer(this, tsae, tsaeSessionTimer, sessionPeriod, minSessionPeriod, maxSessionPeriod).start(sessionDelay);
+		} else {
+			tsaeSessionTimer.scheduleAtFixedRate(tsae, sessionDelay, sessionPeriod, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	public void stopTSAEsessions(){
-		this.tsaeSessionTimer.cancel();
+		this.tsaeSessionTimer.shutdown();
+		this.tsae.shutdown();
+		if (this.eagerPush != null) {
+			this.eagerPush.shutdown();
+		}
 	}
 	
 	public boolean end(){
@@ -117,6 +239,26 @@ public class ServerData {
 	
 	public void setEnd(){
 		this.end = true;
+		peerConnections.closeAll();
+		if (checkpointer != null) {
+			checkpointer.shutdown();
+		}
+		synchronized (this) {
+			if (wal != null) {
+				wal.close();
+				wal = null;
+			}
+		}
+		for (Runnable listener : endListeners) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * @param listener action to run when setEnd is called
+	 */
+	public void addEndListener(Runnable listener){
+		endListeners.add(listener);
 	}
 
 	// ******************************
@@ -143,8 +285,14 @@ public class ServerData {
 		Operation op = new AddOperation(rcpe, timestamp);
 
 		this.log.add(op);
+		appendToWal(op);
+		commitWal();
 		this.summary.updateTimestamp(timestamp);
+		publishSnapshot(false);
 		this.recipes.add(rcpe);
+		if (eagerPush != null) {
+			eagerPush.offer(op);
+		}
 //		LSimLogger.log(Level.TRACE,"The recipe '"+recipeTitle+"' has been added");
 
 	}
@@ -157,26 +305,279 @@ public class ServerData {
 			Operation op = new RemoveOperation(recipeTitle, rcpe.getTimestamp(), timestamp);
 
 			this.log.add(op);
+			appendToWal(op);
+			commitWal();
 			this.summary.updateTimestamp(timestamp);
+			publishSnapshot(false);
 			this.recipes.remove(recipeTitle);
+			if (eagerPush != null) {
+				eagerPush.offer(op);
+			}
 		}
 	}
 	
-	private synchronized void purgeTombstones(){
-		if (ack == null){
-			return;
+	// ******************************
+	// *** TSAE sessions
+	// ******************************
+
+	/**
+	 * Updates the TSAE data structures at the end of a TSAE session:
+	 * merges the partner's summary and ack and purges the log.
+	 * @param partnerSummary
+	 * @param partnerAck (rows of the partner's ack)
+	 */
+	public synchronized void endTSAESession(TimestampVector partnerSummary, AckDelta partnerAck){
+		summary.updateMax(partnerSummary);
+		ack.update(id, summary);
+		ack.updateMax(partnerAck);
+		purge();
+		publishSnapshot(true);
+	}
+
+	/**
+	 * Commits the progress of an aborted TSAE session: watermark only
+	 * includes operations that are already in the log (see SessionProgress).
+	 * The ack and the log are left as they are.
+	 * @param watermark
+	 */
+	public synchronized void commitSessionProgress(TimestampVector watermark){
+		summary.updateMax(watermark);
+		publishSnapshot(false);
+	}
+
+	/**
+	 * @return last published copy of summary and ack. It is obtained without
+	 * locking serverData; its contents must not be modified.
+	 */
+	public TSAESnapshot getTSAESnapshot(){
+		return snapshot.get();
+	}
+
+	/**
+	 * Publishes a new snapshot after a change on the summary (and the ack
+	 * if ackChanged). The ack is only copied when it has changed; otherwise
+	 * the copy of the previous snapshot is shared. Must be called holding
+	 * the lock of serverData.
+	 * @param ackChanged
+	 */
+	private void publishSnapshot(boolean ackChanged){
+		TSAESnapshot previous = snapshot.get();
+		TimestampMatrix ackCopy = (ackChanged || previous == null) ? ack.clone() : previous.getAck();
+		long version = previous == null ? 0 : previous.getVersion() + 1;
+		snapshot.set(new TSAESnapshot(version, summary.clone(), ackCopy));
+	}
+
+	// ******************************
+	// *** write-ahead log
+	// ******************************
+
+	/**
+	 * Rebuilds log, summary, ack, recipes and tombstones from the write-ahead
+	 * log: first the last checkpoint (if any) and then the operations of the
+	 * segments. The operations that the checkpoint already includes are only
+	 * added to the log (if they have not been purged).
+	 * Must be called holding the lock of serverData.
+	 */
+	private void recover(){
+		File directory = new File(walDirectory, id.replaceAll("[^A-Za-z0-9._-]", "_"));
+		wal = new WriteAheadLog(directory, walSyncPolicy, walSyncInterval, walSegmentSize);
+		try {
+			Checkpoint checkpoint = wal.readCheckpoint();
+			if (checkpoint != null) {
+				recipes.addAll(checkpoint.getRecipes());
+				summary.updateMax(checkpoint.getSummary());
+				ack.updateMax(checkpoint.getAck());
+				tombstones.replaceAll(checkpoint.getTombstones());
+			}
+			TimestampVector checkpointSummary = summary.clone();
+			TimestampVector purged = ack.minTimestampVector();
+			if (checkpoint != null) {
+				purged.updateMax(checkpoint.getPurged());
+			}
+			List<Operation> operations = wal.recover();
+			int replayed = 0;
+			long lastOwn = summary.getLastSeqnumber(id);
+			for (Operation operation : operations) {
+				Timestamp timestamp = operation.getTimestamp();
+				long last = summary.getLastSeqnumber(timestamp.getHostid());
+				long next = last == Timestamp.NULL_TIMESTAMP_SEQ_NUMBER ? 0 : last + 1;
+				if (timestamp.getSeqnumber() > checkpointSummary.getLastSeqnumber(timestamp.getHostid())) {
+					// operations after a gap (e.g. appended after installing a snapshot
+					// that is not in the checkpoint) are left to the TSAE sessions
+					if (timestamp.getSeqnumber() == next && log.add(operation)) {
+						applyToRecipes(operation);
+						summary.updateTimestamp(timestamp);
+						replayed++;
+					}
+				} else if (timestamp.getSeqnumber() > purged.getLastSeqnumber(timestamp.getHostid())) {
+					log.add(operation);
+				}
+				if (timestamp.getHostid().equals(id)) {
+					lastOwn = Math.max(lastOwn, timestamp.getSeqnumber());
+				}
+			}
+			log.purgeUpTo(purged);
+			tombstones.purge(ack.minTimestampVector());
+			synchronized (timestampLock){
+				// sequence numbers already used are never used again
+				seqnum = lastOwn;
+			}
+			LSimLogger.log(Level.INFO, "[ServerData] recovered from " + directory + ": "
+					+ (checkpoint == null ? "no checkpoint" : "checkpoint of " + checkpoint.getRecipes().size() + " recipes")
+					+ ", " + replayed + " operations replayed (" + operations.size() + " in the log)");
+		} catch (IOException e) {
+			walFailed(e);
 		}
-		TimestampVector sum = ack.minTimestampVector();
-		
-		List<Timestamp> newTombstones = new Vector<>();
-		for(int i=0; i<tombstones.size(); i++){
-			if (tombstones.get(i).compare(sum.getLast(tombstones.get(i).getHostid()))>0){
-				newTombstones.add(tombstones.get(i));
+	}
+
+	private void appendToWal(Operation operation){
+		if (wal != null) {
+			try {
+				wal.append(operation);
+			} catch (IOException e) {
+				walFailed(e);
 			}
 		}
-		tombstones = newTombstones;
 	}
-	
+
+	private void commitWal(){
+		if (wal != null) {
+			wal.commit();
+		}
+	}
+
+	/**
+	 * Removes what is no longer needed once every participant has received
+	 * an operation: the operations of the log, their tombstones and the
+	 * segments of the write-ahead log (once they are in the last checkpoint).
+	 * Must be called holding the lock of serverData.
+	 */
+	private void purge(){
+		TimestampVector received = ack.minTimestampVector();
+		log.purgeUpTo(received);
+		tombstones.purge(received);
+		if (wal != null) {
+			wal.purge(received);
+		}
+	}
+
+	/**
+	 * Copies the state to write a checkpoint. Only references are copied
+	 * (recipes are immutable), so the lock of serverData is held briefly;
+	 * the checkpoint is written without it (see Checkpointer).
+	 * @param lastVersion version of the state included in the last checkpoint
+	 * @return the state (null if there is no write-ahead log or the state has not changed since lastVersion)
+	 */
+	public synchronized Checkpoint captureCheckpoint(long lastVersion){
+		if (wal == null || snapshot.get().getVersion() == lastVersion) {
+			return null;
+		}
+		return captureSnapshot();
+	}
+
+	/**
+	 * Copies the state (see captureCheckpoint). Its summary includes the
+	 * operations that are already applied to recipes but not yet in the
+	 * summary (received by a TSAE session that is still running).
+	 * @return the state
+	 */
+	public synchronized Checkpoint captureSnapshot(){
+		TimestampVector applied = summary.clone();
+		applied.updateMax(log.getLast());
+		return new Checkpoint(snapshot.get().getVersion(), wal == null ? -1 : wal.getActiveSegment(), applied, log.getPurged(),
+				ack.delta(null), tombstones.toList(), recipes.getAll());
+	}
+
+	// ******************************
+	// *** bootstrap
+	// ******************************
+
+	/**
+	 * @param partnerSummary
+	 * @return true if the partner should be sent a snapshot of the state instead
+	 * of the operations it misses: the log cannot serve it (some of them have been
+	 * purged) or it misses more than bootstrapThreshold operations
+	 */
+	public boolean shouldBootstrap(TimestampVector partnerSummary){
+		if (!canServe(partnerSummary)) {
+			return true;
+		}
+		return bootstrapThreshold > 0 && getTSAESnapshot().getSummary().countNewer(partnerSummary) > bootstrapThreshold;
+	}
+
+	/**
+	 * @param partnerSummary
+	 * @return true if the log has all the operations that the partner misses
+	 */
+	public boolean canServe(TimestampVector partnerSummary){
+		return log.canServe(partnerSummary);
+	}
+
+	/**
+	 * @param partnerSummary
+	 * @return the last checkpoint, opened to be sent to the partner, if it
+	 * includes everything the partner has and the log has every operation
+	 * newer than it (null: a snapshot has to be taken, see captureSnapshot)
+	 * @throws IOException
+	 */
+	public synchronized FileChannel openBootstrapCheckpoint(TimestampVector partnerSummary) throws IOException{
+		if (wal == null) {
+			return null;
+		}
+		TimestampVector checkpointSummary = wal.getCheckpointSummary();
+		if (checkpointSummary == null || partnerSummary.countNewer(checkpointSummary) > 0
+				|| checkpointSummary.countNewer(partnerSummary) == 0 || !log.canServe(checkpointSummary)) {
+			return null;
+		}
+		return wal.openCheckpoint();
+	}
+
+	/**
+	 * Installs a snapshot of the state of a partner (see Bootstrap) at once.
+	 * The local operations that it does not include are applied again on top
+	 * of it; the ones it includes but the log misses are purged from the log
+	 * (see Log.skipTo). It is discarded if it has nothing new or if it misses
+	 * some operation purged from the log (that could not be applied again).
+	 * @param snapshot
+	 * @return true if the snapshot has been installed
+	 */
+	public synchronized boolean installSnapshot(Checkpoint snapshot){
+		TimestampVector snapshotSummary = snapshot.getSummary();
+		if (snapshotSummary.countNewer(summary) == 0 || !log.canServe(snapshotSummary)) {
+			return false;
+		}
+		// readers of the recipes do not take the lock: they must see the
+		// snapshot and the local operations applied again at once
+		Recipes installed = new Recipes();
+		installed.replaceAll(snapshot.getRecipes());
+		tombstones.replaceAll(snapshot.getTombstones());
+		for (Operation operation : log.listNewer(snapshotSummary)) {
+			applyToRecipes(operation, installed);
+		}
+		recipes.replaceAll(installed);
+		log.skipTo(snapshotSummary);
+		summary.updateMax(snapshotSummary);
+		ack.updateMax(snapshot.getAck());
+		ack.update(id, summary);
+		purge();
+		synchronized (timestampLock){
+			// a replica that lost its state gets back its own operations
+			seqnum = Math.max(seqnum, summary.getLastSeqnumber(id));
+		}
+		publishSnapshot(true);
+		if (checkpointer != null) {
+			// the write-ahead log does not include the snapshot
+			checkpointer.requestCheckpoint();
+		}
+		return true;
+	}
+
+	private void walFailed(IOException e){
+		LSimLogger.log(Level.ERROR, "[ServerData] write-ahead log disabled: " + e);
+		wal.close();
+		wal = null;
+	}
+
 	// ****************************************************************************
 	// *** operations to get the TSAE data structures. Used to send to evaluation
 	// ****************************************************************************
@@ -222,19 +623,172 @@ public class ServerData {
 	public void setSessionDelay(long sessionDelay) {
 		this.sessionDelay = sessionDelay;
 	}
+	public long getSessionPeriod() {
+		return sessionPeriod;
+	}
 	public void setSessionPeriod(long sessionPeriod) {
 		this.sessionPeriod = sessionPeriod;
 	}
+	/**
+	 * @param minSessionPeriod (milliseconds)
+	 * @param maxSessionPeriod (milliseconds)
+	 */
+	public void setSessionPeriodBounds(long minSessionPeriod, long maxSessionPeriod) {
+		this.minSessionPeriod = minSessionPeriod;
+		this.maxSessionPeriod = maxSessionPeriod;
+	}
+	public boolean isDuplexSessions() {
+		return duplexSessions;
+	}
+	public void setDuplexSessions(boolean duplexSessions) {
+		this.duplexSessions = duplexSessions;
+	}
+	public boolean isDigestHandshake() {
+		return digestHandshake;
+	}
+	public void setDigestHandshake(boolean digestHandshake) {
+		this.digestHandshake = digestHandshake;
+	}
+	public int getMaxConcurrentSessions() {
+		return maxConcurrentSessions;
+	}
+	public void setMaxConcurrentSessions(int maxConcurrentSessions) {
+		this.maxConcurrentSessions = maxConcurrentSessions;
+	}
+	public long getSessionRoundDeadline() {
+		return sessionRoundDeadline;
+	}
+	public void setSessionRoundDeadline(long sessionRoundDeadline) {
+		this.sessionRoundDeadline = sessionRoundDeadline;
+	}
+	public long getSessionTimeout() {
+		return sessionTimeout;
+	}
+	public void setSessionTimeout(long sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+	}
+	/**
+	 * @param eagerPushEnabled
+	 * @param pushFanout number of partners each new operation is pushed to
+	 */
+	public void setEagerPush(boolean eagerPushEnabled, int pushFanout) {
+		this.eagerPushEnabled = eagerPushEnabled;
+		this.pushFanout = pushFanout;
+	}
+	/**
+	 * @return the pusher of new local operations (null if new operations are
+	 * propagated by propDegree TSAE sessions)
+	 */
+	public EagerPush getEagerPush() {
+		return eagerPush;
+	}
+	public Compressor getCompressor() {
+		return compressor;
+	}
+	/**
+	 * @return name of the compressor accepted in TSAE sessions (null if none)
+	 */
+	public String getCompressionName() {
+		return compressor == null ? null : compressor.getName();
+	}
+	public void setCompressor(Compressor compressor) {
+		this.compressor = compressor;
+	}
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+	/**
+	 * keeps the operations of the server on disk, in a subdirectory of directory,
+	 * and recovers them when the server starts (see WriteAheadLog)
+	 * @param directory (null: no write-ahead log)
+	 * @param syncPolicy
+	 * @param syncInterval (milliseconds)
+	 * @param segmentSize (bytes)
+	 */
+	public void setWriteAheadLog(File directory, SyncPolicy syncPolicy, long syncInterval, int segmentSize) {
+		this.walDirectory = directory;
+		this.walSyncPolicy = syncPolicy;
+		this.walSyncInterval = syncInterval;
+		this.walSegmentSize = segmentSize;
+	}
+	/**
+	 * @param checkpointInterval (milliseconds) period of the checkpoints of the state
+	 * (0: no checkpoints; the write-ahead log is then never purged)
+	 */
+	public void setCheckpointInterval(long checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+	public boolean isBootstrapEnabled() {
+		return bootstrapEnabled;
+	}
+	public void setBootstrapEnabled(boolean bootstrapEnabled) {
+		this.bootstrapEnabled = bootstrapEnabled;
+	}
+	/**
+	 * @param partner
+	 * @return true if this server accepts a snapshot from partner (bootstrap is
+	 * enabled and the last snapshot from partner has not been discarded)
+	 */
+	public boolean acceptsBootstrapFrom(String partner) {
+		return bootstrapEnabled && !bootstrapDeclined.contains(partner);
+	}
+	/**
+	 * @param partner
+	 * @param declined true if a snapshot from partner has been discarded; false
+	 * once a session with partner has completed
+	 */
+	public void setBootstrapDeclined(String partner, boolean declined) {
+		if (partner == null) {
+			return;
+		}
+		if (declined) {
+			bootstrapDeclined.add(partner);
+		} else {
+			bootstrapDeclined.remove(partner);
+		}
+	}
+	/**
+	 * @param bootstrapThreshold number of missing operations above which a partner
+	 * is sent a snapshot instead of the operations (0: only if the log cannot serve it)
+	 */
+	public void setBootstrapThreshold(long bootstrapThreshold) {
+		this.bootstrapThreshold = bootstrapThreshold;
+	}
+	public PartnerSelection getPartnerSelection() {
+		return partnerSelection;
+	}
+	public void setPartnerSelection(PartnerSelection partnerSelection) {
+		this.partnerSelection = partnerSelection;
+	}
+	public SessionStats getSessionStats(){
+		return this.sessionStats;
+	}
 	public TSAESessionOriginatorSide getTSAESessionOriginatorSide(){
 		return this.tsae;
 	}
+	public AckBaselines getAckBaselines(){
+		return this.ackBaselines;
+	}
+	public PeerConnectionManager getPeerConnections(){
+		return this.peerConnections;
+	}
 	
 	// ******************************
 	// *** other
 	// ******************************
 	
-	public List<Host> getRandomPartners(int num){
-		return participants.getRandomPartners(num);
+	/**
+	 * @param num
+	 * @return at most num partners for a round of TSAE sessions, chosen by the partner selection strategy
+	 */
+	public List<Host> selectPartners(int num){
+		if (num < 1){
+			return new ArrayList<Host>();
+		}
+		return partnerSelection.select(participants.getPartners(), num, getTSAESnapshot());
 	}
 	
 	/**
@@ -260,25 +814,79 @@ public class ServerData {
 	}
 
 	public synchronized void performOperation(Operation operation) {
+		applyOperation(operation);
+		commitWal();
+	}
+
+	/**
+	 * adds operation to the log (and to the write-ahead log) and applies it to recipes
+	 * if it is new. Must be called holding the lock of serverData.
+	 */
+	private void applyOperation(Operation operation) {
 		if (log.add(operation)) {
-			if (isAddOperation(operation)) {
-				AddOperation addOperation = (AddOperation) operation;
-				Recipe recipe = addOperation.getRecipe();
-				if(!tombstones.contains(recipe.getTimestamp())) {
-					recipes.add(recipe);
-				}
-				recipes.add(((AddOperation)operation).getRecipe());
+			appendToWal(operation);
+			applyToRecipes(operation);
+		}
+	}
+
+	private void applyToRecipes(Operation operation) {
+		applyToRecipes(operation, recipes);
+	}
+
+	private void applyToRecipes(Operation operation, Recipes recipes) {
+		if (isAddOperation(operation)) {
+			AddOperation addOperation = (AddOperation) operation;
+			Recipe recipe = addOperation.getRecipe();
+			if(!tombstones.contains(recipe.getTimestamp())) {
+				recipes.add(recipe);
+			}
+		} else {
+			RemoveOperation r = (RemoveOperation) operation;
+			if(recipes.contains(r.getRecipeTitle())) {
+				recipes.remove(r.getRecipeTitle());
 			} else {
-				RemoveOperation r = (RemoveOperation) operation;
-				if(recipes.contains(r.getRecipeTitle())) {
-					recipes.remove(r.getRecipeTitle());
-				} else {
-					tombstones.add(r.getRecipeTimestamp());
-				}
+				tombstones.add(r.getRecipeTimestamp());
 			}
 		}
 	}
 
+	/**
+	 * applies the operations pushed by a partner (see EagerPush). Only the
+	 * operations that directly follow the ones in the summary are applied
+	 * (and added to the summary), so that the log never has gaps; the rest
+	 * are left to the anti-entropy sessions.
+	 * @param operations
+	 */
+	public synchronized void receivePushedOperations(List<Operation> operations) {
+		boolean changed = false;
+		for (Operation operation : operations) {
+			Timestamp timestamp = operation.getTimestamp();
+			long last = summary.getLastSeqnumber(timestamp.getHostid());
+			long next = last == Timestamp.NULL_TIMESTAMP_SEQ_NUMBER ? 0 : last + 1;
+			if (timestamp.getSeqnumber() == next) {
+				applyOperation(operation);
+				summary.updateTimestamp(timestamp);
+				changed = true;
+			}
+		}
+		if (changed) {
+			commitWal();
+			publishSnapshot(false);
+		}
+	}
+
+	/**
+	 * applies a sequence of operations received in a TSAE session
+	 * (taking the lock only once)
+	 * @param operations
+	 */
+	public synchronized void performOperations(List<Operation> operations) {
+		for (Operation operation : operations) {
+			applyOperation(operation);
+		}
+		commitWal();
+	}
+
 	private boolean isAddOperation(Operation operation) {
 		return operation.getType().equals(OperationType.ADD);
 	}
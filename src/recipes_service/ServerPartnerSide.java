@@ -23,10 +23,23 @@ package recipes_service;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import lsim.library.api.LSimLogger;
+import recipes_service.communication.PeerConnectionManager;
 import recipes_service.tsae.sessions.TSAESessionPartnerSide;
 
 /**
@@ -34,11 +47,31 @@ import recipes_service.tsae.sessions.TSAESessionPartnerSide;
  * December 2012
  *
  */
-public class ServerPartnerSide  extends Thread{
+public class ServerPartnerSide  extends Thread implements TSAESessionPartnerSide.IdleConnectionHandler{
 	private int port;
 	private ServerData serverData = null;
 	
-	private ServerSocket serverSocket = null;
+	// maximum number of TSAE sessions from partners run at the same time
+	// and maximum number of connections waiting to be run
+	private static final int MAX_SESSIONS = 16;
+	private static final int MAX_QUEUED_SESSIONS = 64;
+	// period (in milliseconds) to check for expired idle connections
+	private static final long IDLE_CHECK_PERIOD = 5000;
+
+	// connection waiting (in the selector) for the next session
+	private static class IdleConnection {
+		final TSAESessionPartnerSide session;
+		final long since = System.currentTimeMillis();
+
+		IdleConnection(TSAESessionPartnerSide session) {
+			this.session = session;
+		}
+	}
+
+	private ServerSocketChannel serverSocket = null;
+	private Selector selector = null;
+	// sessions that ended properly, waiting to be registered in the selector
+	private final ConcurrentLinkedQueue<TSAESessionPartnerSide> idleSessions = new ConcurrentLinkedQueue<TSAESessionPartnerSide>();
 
 	boolean servicePublished = false;
 
@@ -65,18 +98,57 @@ public class ServerPartnerSide  extends Thread{
 		serverData.waitServerConnected();
 		
 		// accept remote TSAE connections
-		// starts a new thread for each TSAE sessions from a partner server 
+		// each TSAE session from a partner server is run by a thread of a bounded pool.
+		// Connections that arrive when the pool and its queue are full are closed
+		// (the partner will retry in a later session)
+		ThreadPoolExecutor sessions = new ThreadPoolExecutor(MAX_SESSIONS, MAX_SESSIONS, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_QUEUED_SESSIONS),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "TSAEPartnerSideThread");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		sessions.allowCoreThreadTimeOut(true);
+
+		// selector is woken up (and closed) as soon as the server should stop
+		serverData.addEndListener(new Runnable() {
+			@Override
+			public void run() {
+				selector.wakeup();
+			}
+		});
 
 		while (!serverData.end()){
 			try {
-				// accept will block for this amount of time.
-				// After this time a SocketTimeoutException will rise.
-				// if server should stop it will close and finish.
-				// In other case it will block again. 
-				serverSocket.setSoTimeout(20000);
-				new TSAESessionPartnerSide(serverSocket.accept(), this.serverData).start();
-			} catch (java.net.SocketTimeoutException e){
-				;
+				selector.select(IDLE_CHECK_PERIOD);
+				// connections with a new session: they leave the selector before being served
+				List<IdleConnection> ready = new ArrayList<IdleConnection>();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept(sessions);
+					} else if (key.isReadable()) {
+						key.cancel();
+						ready.add((IdleConnection) key.attachment());
+					}
+				}
+				if (!ready.isEmpty()) {
+					// deregisters the cancelled keys (needed to go back to blocking mode)
+					selector.selectNow();
+					for (IdleConnection connection : ready) {
+						resume(sessions, connection.session);
+					}
+				}
+				registerIdleSessions();
+				closeExpiredConnections();
 			}catch (IOException e1) {
 				// TODO Auto-generated catch block
 				LSimLogger.log(Level.ERROR,
@@ -86,7 +158,18 @@ public class ServerPartnerSide  extends Thread{
 			}
 		}
 		
+		sessions.shutdown();
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof IdleConnection) {
+				((IdleConnection) key.attachment()).session.close();
+			}
+		}
+		TSAESessionPartnerSide session;
+		while ((session = idleSessions.poll()) != null) {
+			session.close();
+		}
 		try {
+			selector.close();
 			serverSocket.close();
 		} catch (IOException e) {
 			LSimLogger.log(Level.ERROR,
@@ -95,6 +178,67 @@ public class ServerPartnerSide  extends Thread{
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * accepts all the pending connections and hands them to the pool of sessions.
+	 * Session code uses blocking streams, so accepted channels are set to blocking mode
+	 */
+	private void accept(ThreadPoolExecutor sessions) throws IOException{
+		SocketChannel channel;
+		while ((channel = serverSocket.accept()) != null) {
+			resume(sessions, new TSAESessionPartnerSide(channel.socket(), this.serverData, this));
+		}
+	}
+
+	private void resume(ThreadPoolExecutor sessions, TSAESessionPartnerSide session) {
+		try {
+			session.getSocket().getChannel().configureBlocking(true);
+			sessions.execute(session);
+		} catch (IOException e) {
+			session.close();
+		} catch (RejectedExecutionException e) {
+			session.close();
+		}
+	}
+
+	/**
+	 * the connection of session waits in the selector for the next session
+	 * from the same originator
+	 */
+	@Override
+	public void idle(TSAESessionPartnerSide session) {
+		idleSessions.add(session);
+		selector.wakeup();
+	}
+
+	private void registerIdleSessions() {
+		TSAESessionPartnerSide session;
+		while ((session = idleSessions.poll()) != null) {
+			try {
+				SocketChannel channel = session.getSocket().getChannel();
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, new IdleConnection(session));
+			} catch (IOException e) {
+				session.close();
+			}
+		}
+	}
+
+	/**
+	 * closes the connections that have been idle for more than PeerConnectionManager.IDLE_TIMEOUT
+	 */
+	private void closeExpiredConnections() {
+		long now = System.currentTimeMillis();
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof IdleConnection) {
+				IdleConnection connection = (IdleConnection) key.attachment();
+				if (now - connection.since > PeerConnectionManager.IDLE_TIMEOUT) {
+					key.cancel();
+					connection.session.close();
+				}
+			}
+		}
+	}
 	
 	public int getPort(){
 		return this.port;
@@ -138,9 +282,12 @@ public class ServerPartnerSide  extends Thread{
 		// starts a thread to deal with TSAE sessions from partner servers 
 
 		try {
-			serverSocket = new ServerSocket();
-			serverSocket.setReuseAddress(true);
+			serverSocket = ServerSocketChannel.open();
+			serverSocket.socket().setReuseAddress(true);
 			serverSocket.bind(new InetSocketAddress(port));
+			serverSocket.configureBlocking(false);
+			selector = Selector.open();
+			serverSocket.register(selector, SelectionKey.OP_ACCEPT);
 //			serverSocket = new ServerSocket(port);
 //			serverSocket.setReuseAddress(true);
 		} catch (IOException e) {
@@ -153,6 +300,13 @@ public class ServerPartnerSide  extends Thread{
 					/* should not be thrown */
 				}
 			}
+			if (selector != null) {
+				try {
+					selector.close();
+				} catch (IOException e1) {
+					/* should not be thrown */
+				}
+			}
 			return false;
 		}
 		return true;
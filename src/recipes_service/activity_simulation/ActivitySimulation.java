@@ -78,7 +78,10 @@ public class ActivitySimulation extends TimerTask{
 				LSimLogger.log(Level.INFO, "["+serverData.getId()+"] ADD recipe: "+String.valueOf(chars));
 
 				serverData.addRecipe(String.valueOf(chars), "Content--"+String.valueOf(chars));
-				serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+				// (with eager push the new operation has already been queued to be pushed)
+				if (serverData.getEagerPush() == null) {
+					serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+				}
 			}			
 			//probability of deleting a recipe
 			if(simulationData.deletionActivated()
@@ -90,7 +93,9 @@ public class ActivitySimulation extends TimerTask{
 					System.out.println("["+serverData.getId()+"] REMOVE recipe: "+recipeTitle);
 					LSimLogger.log(Level.INFO, "["+serverData.getId()+"] REMOVE recipe: "+recipeTitle);
 					serverData.removeRecipe(recipeTitle);
-					serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+					if (serverData.getEagerPush() == null) {
+						serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+					}
 				}				
 			}
 
@@ -46,7 +46,10 @@ public class SimulationData {
 	private int simulationStop; // duration of activity simulation phase (TSAE sessions + synthetic activity generation + connections/disconnections of nodes)                     
 	private int executionStop; // duration of convergence phase (TSAE sessions. Disconnected nodes won't reconnect)
 	
-	private boolean connected = false;
+	private volatile boolean connected = false;
+	// incremented each time the node connects or disconnects (connections opened
+	// before a change are not reused)
+	private volatile int connectionEpoch = 0;
 	private boolean deletion=false;
 
 	// Activity simulation
@@ -141,6 +144,13 @@ public class SimulationData {
 								" Ends Execution"
 								);
 						SimulationData.getInstance().serverData.stopTSAEsessions();
+						LSimLogger.log(
+								Level.INFO,
+								"Server " +
+										SimulationData.getInstance().serverData.getId() +
+										" TSAE sessions: " +
+										SimulationData.getInstance().serverData.getSessionStats()
+								);
 						SimulationData.getInstance().serverData.setEnd();
 //						endSimulation = true;
 					}
@@ -166,12 +176,18 @@ public class SimulationData {
 		return connected;
 	}
 
+	public int getConnectionEpoch() {
+		return connectionEpoch;
+	}
+
 	public void connect() {
+		connectionEpoch++;
 		this.connected = true;
 	}
 
 	public void disconnect() {
 		this.connected = false;
+		connectionEpoch++;
 	}
 
 	public boolean deletionActivated() {
@@ -0,0 +1,492 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import communication.Codec;
+import communication.CodecInput;
+import communication.CodecOutput;
+import communication.WireInput;
+import communication.WireOutput;
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.Recipe;
+import recipes_service.data.RemoveOperation;
+import recipes_service.tsae.data_structures.AckDelta;
+import recipes_service.tsae.data_structures.HostIndex;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Hand-written binary encoding of the TSAE messages.
+ *
+ * Each object is written as a tag followed by its fields: numbers as
+ * varints, strings as length-prefixed UTF-8 and host ids (and host
+ * indexes) interned per connection, so that after the first message a
+ * timestamp takes a few bytes. Objects that are not messages known by
+ * the codec are sent using Java serialization inside a length-prefixed
+ * frame.
+ *
+ * Operations have a fixed header (type, timestamp and length of the body)
+ * followed by the body (the recipe). The body never uses the table of
+ * interned strings, so that the receiver can skip it (see OperationFilter).
+ */
+public class BinaryMessageCodec implements Codec {
+
+	public static final String NAME = "binary";
+
+	// tags
+	private static final int JAVA_OBJECT = 0;
+	private static final int AE_REQUEST = 1;
+	private static final int OPERATION = 2;
+	private static final int END_TSAE = 3;
+	private static final int OPERATION_BATCH = 4;
+	private static final int AE_DIGEST = 5;
+	private static final int PUSH = 6;
+	private static final int BOOTSTRAP = 7;
+
+	// operation types
+	private static final int ADD = 0;
+	private static final int REMOVE = 1;
+
+	// recipe timestamps
+	private static final int NO_TIMESTAMP = 0;
+	private static final int SAME_TIMESTAMP = 1;
+	private static final int OTHER_TIMESTAMP = 2;
+
+	// recipe authors
+	private static final int OPERATION_HOST = 0;
+	private static final int OTHER_AUTHOR = 1;
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public CodecOutput newOutput(OutputStream out) throws IOException {
+		return new Output(new BufferedOutputStream(out));
+	}
+
+	@Override
+	public CodecInput newInput(InputStream in) throws IOException {
+		return new Input(new BufferedInputStream(in));
+	}
+
+	/**
+	 * Writing end: a WireOutput plus the table of host indexes already sent.
+	 */
+	public static class Output extends WireOutput implements CodecOutput {
+		private final Map<HostIndex, Integer> hostIndexes = new IdentityHashMap<HostIndex, Integer>();
+		// body of the operation being written (its length goes first)
+		private final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+		private final WireOutput body = new WireOutput(bodyBytes);
+
+		public Output(OutputStream out){
+			super(out);
+		}
+
+		@Override
+		public void writeObject(Object obj) throws IOException {
+			if (obj instanceof MessageAErequest) {
+				MessageAErequest msg = (MessageAErequest) obj;
+				writeHeader(AE_REQUEST, msg);
+				writeInternedString(msg.getHostId());
+				writeTimestampVector(msg.getSummary());
+				writeAckDelta(msg.getAck());
+				writeByte(msg.isDuplex() ? 1 : 0);
+				writeString(msg.getCompression());
+				writeByte(msg.acceptsBootstrap() ? 1 : 0);
+			} else if (obj instanceof MessageOperation) {
+				MessageOperation msg = (MessageOperation) obj;
+				writeHeader(OPERATION, msg);
+				writeOperation(msg.getOperation());
+			} else if (obj instanceof MessageOperationBatch) {
+				MessageOperationBatch msg = (MessageOperationBatch) obj;
+				writeHeader(OPERATION_BATCH, msg);
+				writeOperations(msg.getOperations());
+			} else if (obj instanceof MessagePush) {
+				MessagePush msg = (MessagePush) obj;
+				writeHeader(PUSH, msg);
+				writeOperations(msg.getOperations());
+			} else if (obj instanceof MessageEndTSAE) {
+				writeHeader(END_TSAE, (Message) obj);
+			} else if (obj instanceof MessageBootstrap) {
+				MessageBootstrap msg = (MessageBootstrap) obj;
+				writeHeader(BOOTSTRAP, msg);
+				writeVarLong(msg.getLength());
+			} else if (obj instanceof MessageAEdigest) {
+				MessageAEdigest msg = (MessageAEdigest) obj;
+				writeHeader(AE_DIGEST, msg);
+				writeInternedString(msg.getHostId());
+				writeVarLong(msg.getSummaryDigest());
+				writeVarLong(msg.getAckDigest());
+				writeByte(msg.isAckUpToDate() ? 1 : 0);
+			} else {
+				writeJavaObject(obj);
+			}
+			flush();
+		}
+
+		private void writeHeader(int tag, Message msg) throws IOException {
+			writeByte(tag);
+			writeSignedVarLong(msg.getSessionNumber());
+		}
+
+		private void writeJavaObject(Object obj) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(obj);
+			out.close();
+			writeByte(JAVA_OBJECT);
+			writeVarInt(bytes.size());
+			writeBytes(bytes.toByteArray(), 0, bytes.size());
+		}
+
+		public void writeHostIndex(HostIndex hosts) throws IOException {
+			Integer position = hostIndexes.get(hosts);
+			if (position != null) {
+				writeVarInt(position + 1);
+				return;
+			}
+			writeVarInt(0);
+			writeVarInt(hosts.size());
+			for (int i = 0; i < hosts.size(); i++) {
+				writeInternedString(hosts.getId(i));
+			}
+			hostIndexes.put(hosts, hostIndexes.size());
+		}
+
+		public void writeTimestamp(Timestamp ts) throws IOException {
+			writeInternedString(ts.getHostid());
+			writeSignedVarLong(ts.getSeqnumber());
+		}
+
+		public void writeTimestampVector(TimestampVector summary) throws IOException {
+			if (summary == null) {
+				writeByte(0);
+				return;
+			}
+			writeByte(1);
+			writeHostIndex(summary.getHostIndex());
+			for (long seqnumber : summary.toArray()) {
+				writeSignedVarLong(seqnumber);
+			}
+		}
+
+		public void writeAckDelta(AckDelta ack) throws IOException {
+			if (ack == null) {
+				writeByte(0);
+				return;
+			}
+			writeByte(1);
+			HostIndex hosts = ack.getHostIndex();
+			writeHostIndex(hosts);
+			writeVarInt(ack.numRows());
+			for (int i = 0; i < ack.numRows(); i++) {
+				writeVarInt(ack.getRow(i));
+				for (int column = 0; column < hosts.size(); column++) {
+					writeSignedVarLong(ack.getCell(i, column));
+				}
+			}
+		}
+
+		public void writeOperations(List<Operation> operations) throws IOException {
+			writeVarInt(operations.size());
+			for (Operation op : operations) {
+				writeOperation(op);
+			}
+		}
+
+		/**
+		 * header (type, timestamp and length of the body) followed by the body
+		 */
+		public void writeOperation(Operation op) throws IOException {
+			Timestamp ts = op.getTimestamp();
+			bodyBytes.reset();
+			switch (op.getType()) {
+			case ADD:
+				Recipe recipe = ((AddOperation) op).getRecipe();
+				writeByte(ADD);
+				body.writeString(recipe.getTitle());
+				body.writeString(recipe.getRecipe());
+				writeAuthor(recipe.getAuthor(), ts);
+				writeRecipeTimestamp(recipe.getTimestamp(), ts);
+				break;
+			case REMOVE:
+				RemoveOperation remove = (RemoveOperation) op;
+				writeByte(REMOVE);
+				body.writeString(remove.getRecipeTitle());
+				writeRecipeTimestamp(remove.getRecipeTimestamp(), ts);
+				break;
+			}
+			writeTimestamp(ts);
+			writeVarInt(bodyBytes.size());
+			writeBytes(bodyBytes.toByteArray(), 0, bodyBytes.size());
+		}
+
+		// the author of a recipe is usually the host that added it
+		private void writeAuthor(String author, Timestamp opTs) throws IOException {
+			if (author != null && author.equals(opTs.getHostid())) {
+				body.writeByte(OPERATION_HOST);
+			} else {
+				body.writeByte(OTHER_AUTHOR);
+				body.writeString(author);
+			}
+		}
+
+		// the timestamp of a recipe is usually the one of the operation that added it
+		private void writeRecipeTimestamp(Timestamp recipeTs, Timestamp opTs) throws IOException {
+			if (recipeTs == null) {
+				body.writeByte(NO_TIMESTAMP);
+			} else if (recipeTs.equals(opTs)) {
+				body.writeByte(SAME_TIMESTAMP);
+			} else {
+				body.writeByte(OTHER_TIMESTAMP);
+				body.writeString(recipeTs.getHostid());
+				body.writeSignedVarLong(recipeTs.getSeqnumber());
+			}
+		}
+	}
+
+	/**
+	 * Reading end: a WireInput plus the table of host indexes already received.
+	 */
+	public static class Input extends WireInput implements CodecInput {
+		private final List<HostIndex> hostIndexes = new ArrayList<HostIndex>();
+		// operations of batches that are not decoded (null: all of them are decoded)
+		private OperationFilter filter = null;
+
+		public Input(InputStream in){
+			super(in);
+		}
+
+		@Override
+		public Object readObject() throws IOException, ClassNotFoundException {
+			int tag = readByte();
+			Message msg;
+			switch (tag) {
+			case JAVA_OBJECT:
+				return readJavaObject();
+			case AE_REQUEST:
+				int session = (int) readSignedVarLong();
+				MessageAErequest request = new MessageAErequest(readInternedString(), readTimestampVector(), readAckDelta());
+				request.setDuplex(readByte() != 0);
+				request.setCompression(readString());
+				request.setBootstrap(readByte() != 0);
+				request.setSessionNumber(session);
+				return request;
+			case OPERATION:
+				session = (int) readSignedVarLong();
+				msg = new MessageOperation(readOperation());
+				msg.setSessionNumber(session);
+				return msg;
+			case OPERATION_BATCH:
+				session = (int) readSignedVarLong();
+				msg = new MessageOperationBatch(readOperations());
+				msg.setSessionNumber(session);
+				return msg;
+			case PUSH:
+				session = (int) readSignedVarLong();
+				msg = new MessagePush(readOperations());
+				msg.setSessionNumber(session);
+				return msg;
+			case END_TSAE:
+				msg = new MessageEndTSAE();
+				msg.setSessionNumber((int) readSignedVarLong());
+				return msg;
+			case BOOTSTRAP:
+				session = (int) readSignedVarLong();
+				msg = new MessageBootstrap(readVarLong());
+				msg.setSessionNumber(session);
+				return msg;
+			case AE_DIGEST:
+				session = (int) readSignedVarLong();
+				msg = new MessageAEdigest(readInternedString(), readVarLong(), readVarLong(), readByte() != 0);
+				msg.setSessionNumber(session);
+				return msg;
+			default:
+				throw new StreamCorruptedException("Unknown tag: " + tag);
+			}
+		}
+
+		private Object readJavaObject() throws IOException, ClassNotFoundException {
+			byte[] bytes = new byte[readLength()];
+			readFully(bytes);
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return in.readObject();
+			} finally {
+				in.close();
+			}
+		}
+
+		public HostIndex readHostIndex() throws IOException {
+			int position = readVarInt();
+			if (position > 0) {
+				if (position > hostIndexes.size()) {
+					throw new StreamCorruptedException("Unknown host index: " + position);
+				}
+				return hostIndexes.get(position - 1);
+			}
+			int size = readLength();
+			List<String> ids = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++) {
+				ids.add(readInternedString());
+			}
+			HostIndex hosts = HostIndex.of(ids);
+			hostIndexes.add(hosts);
+			return hosts;
+		}
+
+		public Timestamp readTimestamp() throws IOException {
+			return new Timestamp(readInternedString(), readSignedVarLong());
+		}
+
+		public TimestampVector readTimestampVector() throws IOException {
+			if (readByte() == 0) {
+				return null;
+			}
+			HostIndex hosts = readHostIndex();
+			long[] seqnumbers = new long[hosts.size()];
+			for (int i = 0; i < seqnumbers.length; i++) {
+				seqnumbers[i] = readSignedVarLong();
+			}
+			return new TimestampVector(hosts, seqnumbers);
+		}
+
+		public AckDelta readAckDelta() throws IOException {
+			if (readByte() == 0) {
+				return null;
+			}
+			HostIndex hosts = readHostIndex();
+			int n = hosts.size();
+			int numRows = readLength();
+			// each cell takes at least one byte
+			if (numRows > n || (long) numRows * n > getMaxLength()) {
+				throw new StreamCorruptedException("Invalid number of rows: " + numRows);
+			}
+			int[] rows = new int[numRows];
+			long[] cells = new long[rows.length * n];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = readVarInt();
+				if (rows[i] < 0 || rows[i] >= n) {
+					throw new StreamCorruptedException("Invalid row: " + rows[i]);
+				}
+				for (int column = 0; column < n; column++) {
+					cells[i * n + column] = readSignedVarLong();
+				}
+			}
+			return new AckDelta(hosts, rows, cells);
+		}
+
+		/**
+		 * sets the filter of the operations received in batches (and pushes):
+		 * the known ones are skipped and left out of the message
+		 * @param filter (null to decode all the operations)
+		 */
+		public void setOperationFilter(OperationFilter filter){
+			this.filter = filter;
+		}
+
+		public List<Operation> readOperations() throws IOException {
+			int size = readLength();
+			// each operation takes some bytes: the list grows as they are read
+			List<Operation> operations = new ArrayList<Operation>(Math.min(size, 1024));
+			for (int i = 0; i < size; i++) {
+				Operation op = readOperation(filter);
+				if (op != null) {
+					operations.add(op);
+				}
+			}
+			return operations;
+		}
+
+		public Operation readOperation() throws IOException {
+			return readOperation(null);
+		}
+
+		/**
+		 * @return the operation (null if it has been skipped by filter)
+		 */
+		private Operation readOperation(OperationFilter filter) throws IOException {
+			int type = readByte();
+			Timestamp ts = readTimestamp();
+			int length = readLength();
+			if (filter != null && filter.isKnown(ts)) {
+				skipFully(length);
+				return null;
+			}
+			switch (type) {
+			case ADD:
+				String title = readString();
+				String recipe = readString();
+				String author = readAuthor(ts);
+				return new AddOperation(new Recipe(title, recipe, author, readRecipeTimestamp(ts)), ts);
+			case REMOVE:
+				title = readString();
+				return new RemoveOperation(title, readRecipeTimestamp(ts), ts);
+			default:
+				throw new StreamCorruptedException("Unknown operation type: " + type);
+			}
+		}
+
+		private String readAuthor(Timestamp opTs) throws IOException {
+			int kind = readByte();
+			switch (kind) {
+			case OPERATION_HOST:
+				return opTs.getHostid();
+			case OTHER_AUTHOR:
+				return readString();
+			default:
+				throw new StreamCorruptedException("Unknown recipe author: " + kind);
+			}
+		}
+
+		private Timestamp readRecipeTimestamp(Timestamp opTs) throws IOException {
+			int kind = readByte();
+			switch (kind) {
+			case NO_TIMESTAMP:
+				return null;
+			case SAME_TIMESTAMP:
+				return opTs;
+			case OTHER_TIMESTAMP:
+				return new Timestamp(readString(), readSignedVarLong());
+			default:
+				throw new StreamCorruptedException("Unknown recipe timestamp: " + kind);
+			}
+		}
+	}
+}
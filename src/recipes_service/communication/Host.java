@@ -85,4 +85,13 @@ public class Host implements Serializable{
 			return false;
 		return true;
 	}
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((address == null) ? 0 : address.hashCode());
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + port;
+		return result;
+	}
 }
@@ -21,8 +21,8 @@
 package recipes_service.communication;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.Vector;
 
 
@@ -40,8 +40,6 @@ public class Hosts{
 	
 	private List<String> listIds;
 
-	static Random rnd = new Random();
-
 	public Hosts(Host localNode){
 		this.nodes = new Vector<Host>();
 		this.localNode = localNode;
@@ -58,31 +56,12 @@ public class Hosts{
 		return nodes.size();
 	}
 	/**
-	 * Returns a list of num random partners
-	 * @param num
-	 * @return
+	 * @return a new list with all the nodes except the local one
 	 */
-	public List<Host> getRandomPartners(int num){
-		List<Host> v = new Vector<Host>();
-
-		if (nodes.size() == 1 || num < 1){
-			return v;
-		}
-
-		num = Math.min(num, nodes.size()-1);
-
-		@SuppressWarnings("unchecked")
-		List<Host> auxNodes=(Vector<Host>)((Vector<Host>) nodes).clone();
-
-		auxNodes.remove(localNode);
-
-		int n;
-		while(v.size()<num){
-			n= (((int)(rnd.nextDouble() *10000))%auxNodes.size());
-			v.add(auxNodes.get(n));
-			auxNodes.remove(n);
-		}
-		return v;		
+	public List<Host> getPartners(){
+		List<Host> partners = new ArrayList<Host>(nodes);
+		partners.remove(localNode);
+		return partners;
 	}
 
 	public List<String> getIds(){
@@ -0,0 +1,84 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.communication;
+
+import recipes_service.tsae.data_structures.TSAESnapshot;
+
+/**
+ * Digest of the summary and the ack of a server, exchanged before a TSAE
+ * session. When both sides have the same summary and the same ack (and
+ * their own row of the ack is up to date) the session would not change
+ * anything and it ends after the exchange of digests.
+ */
+public class MessageAEdigest extends Message{
+
+	private static final long serialVersionUID = -2129506387431846517L;
+	private String hostId;
+	private long summaryDigest;
+	private long ackDigest;
+	private boolean ackUpToDate;
+
+	public MessageAEdigest (String hostId, long summaryDigest, long ackDigest, boolean ackUpToDate){
+		this.hostId = hostId;
+		this.summaryDigest = summaryDigest;
+		this.ackDigest = ackDigest;
+		this.ackUpToDate = ackUpToDate;
+	}
+
+	public MessageAEdigest (String hostId, TSAESnapshot snapshot){
+		this(hostId, snapshot.getSummary().digest(), snapshot.getAck().digest(), snapshot.isAckUpToDate(hostId));
+	}
+
+	public String getHostId(){
+		return this.hostId;
+	}
+	public long getSummaryDigest(){
+		return this.summaryDigest;
+	}
+	public long getAckDigest(){
+		return this.ackDigest;
+	}
+	public boolean isAckUpToDate(){
+		return this.ackUpToDate;
+	}
+
+	/**
+	 * @param other
+	 * @return true if a TSAE session between the senders of both digests
+	 * would not change anything (the result is the same on both sides)
+	 */
+	public boolean inSyncWith(MessageAEdigest other){
+		return ackUpToDate && other.ackUpToDate
+				&& summaryDigest == other.summaryDigest
+				&& ackDigest == other.ackDigest;
+	}
+
+	public MsgType type(){
+		return MsgType.AE_DIGEST;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageAEdigest [session: "+getSessionNumber()+", host: "+hostId+", summary digest: "+Long.toHexString(summaryDigest)
+				+", ack digest: "+Long.toHexString(ackDigest)+(ackUpToDate ? "" : ", ack not up to date")+"]";
+	}
+}
@@ -22,7 +22,7 @@ package recipes_service.communication;
 
 import java.io.Serializable;
 
-import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.AckDelta;
 import recipes_service.tsae.data_structures.TimestampVector;
 
 /**
@@ -32,20 +32,50 @@ import recipes_service.tsae.data_structures.TimestampVector;
  */
 public class MessageAErequest extends Message implements Serializable{
 	private static final long serialVersionUID = 3626351664901270873L;
+	private String hostId;
 	private TimestampVector summary;
-	private TimestampMatrix ack;
+	// rows of the sender's ack (only the ones that may be newer than the receiver's ack)
+	private AckDelta ack;
+	// true: the originator asks for a duplex session (both sides send their operations at the same time)
+	private boolean duplex;
+	// name of the compressor the sender accepts for the frames it receives (null: none)
+	private String compression;
+	// true: the sender accepts a snapshot instead of the operations it misses (see MessageBootstrap)
+	private boolean bootstrap;
 
-	public MessageAErequest (TimestampVector summary, TimestampMatrix ack){
+	public MessageAErequest (String hostId, TimestampVector summary, AckDelta ack){
+		this.hostId = hostId;
 		this.summary = summary;
 		this.ack = ack;
 	}
 	
+	public String getHostId(){
+		return this.hostId;
+	}
 	public TimestampVector getSummary(){
 		return this.summary;
 	}
-	public TimestampMatrix getAck(){
+	public AckDelta getAck(){
 		return this.ack;
 	}
+	public void setDuplex(boolean duplex){
+		this.duplex = duplex;
+	}
+	public boolean isDuplex(){
+		return this.duplex;
+	}
+	public void setCompression(String compression){
+		this.compression = compression;
+	}
+	public String getCompression(){
+		return this.compression;
+	}
+	public void setBootstrap(boolean bootstrap){
+		this.bootstrap = bootstrap;
+	}
+	public boolean acceptsBootstrap(){
+		return this.bootstrap;
+	}
 	
 	public MsgType type(){
 		return MsgType.AE_REQUEST;
@@ -53,7 +83,16 @@ public class MessageAErequest extends Message implements Serializable{
 	
 	@Override
 	public String toString() {
-		 String str = "MessageAErequest [session: "+getSessionNumber()+", summary=" + summary;
+		 String str = "MessageAErequest [session: "+getSessionNumber()+", host: "+hostId+", summary=" + summary;
+		 if (duplex){
+			 str += ", duplex";
+		 }
+		 if (bootstrap){
+			 str += ", bootstrap";
+		 }
+		 if (compression != null){
+			 str += ", compression=" + compression;
+		 }
 		 if (ack != null){
 			 str += ", ack=" + ack;
 		 }
@@ -0,0 +1,53 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.communication;
+
+/**
+ * Announces a snapshot of the state of the sender (instead of the
+ * operations the receiver misses). The snapshot follows the message as a
+ * raw frame of length bytes (see communication.FramedInputStream.nextRawFrame).
+ */
+public class MessageBootstrap extends Message{
+
+	private static final long serialVersionUID = -2232590734462158421L;
+	private long length;
+
+	public MessageBootstrap (long length){
+		this.length = length;
+	}
+
+	/**
+	 * @return length (in bytes) of the snapshot
+	 */
+	public long getLength(){
+		return this.length;
+	}
+
+	public MsgType type(){
+		return MsgType.BOOTSTRAP;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageBootstrap [session: "+getSessionNumber()+", length=" + length + "]";
+	}
+}
@@ -0,0 +1,80 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.io.Serializable;
+import java.util.List;
+
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.Recipe;
+import recipes_service.data.RemoveOperation;
+
+/**
+ * A sequence of operations sent in a single message. The receiver applies
+ * all of them at once.
+ */
+public class MessageOperationBatch extends Message implements Serializable{
+	private static final long serialVersionUID = -7795340718305317424L;
+
+	// bounds of a batch: number of operations and estimated size (in bytes)
+	public static final int MAX_OPERATIONS = 256;
+	public static final int MAX_BYTES = 64 * 1024;
+
+	private List<Operation> operations;
+
+	public MessageOperationBatch (List<Operation> operations){
+		this.operations = operations;
+	}
+
+	public List<Operation> getOperations(){
+		return this.operations;
+	}
+
+	public MsgType type(){
+		return MsgType.OPERATION_BATCH;
+	}
+
+	/**
+	 * @param op
+	 * @return rough estimation of the size of op once encoded
+	 */
+	public static int estimatedSize(Operation op){
+		// timestamps, types and length prefixes
+		int size = 32;
+		if (op instanceof AddOperation) {
+			Recipe recipe = ((AddOperation) op).getRecipe();
+			size += length(recipe.getTitle()) + length(recipe.getRecipe()) + length(recipe.getAuthor());
+		} else if (op instanceof RemoveOperation) {
+			size += length(((RemoveOperation) op).getRecipeTitle());
+		}
+		return size;
+	}
+
+	private static int length(String s){
+		return s == null ? 0 : s.length();
+	}
+
+	@Override
+	public String toString() {
+		return "MessageOperationBatch [session: "+getSessionNumber()+", operations=" + operations + "]";
+	}
+}
@@ -0,0 +1,152 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import recipes_service.activity_simulation.SimulationData;
+
+/**
+ * A connection to a partner that can be used for several TSAE sessions,
+ * one after the other. Each session creates its own streams on the socket,
+ * so that no codec state is carried from one session to the next.
+ *
+ * The partner may have closed a connection that looks reusable here: the
+ * session then fails before receiving anything (see isReused and
+ * hasReceived).
+ */
+public class PeerConnection {
+	private final Socket socket;
+	private final InputStream in;
+	// SimulationData connection epoch when the connection was opened
+	private final int epoch;
+	private long lastUsed;
+	// number of sessions that have acquired the connection
+	private int sessions;
+	// true once the current session has received some byte from the partner
+	private volatile boolean received;
+
+	/**
+	 * @param host
+	 * @param connectTimeout milliseconds (0: no timeout)
+	 * @param readTimeout milliseconds a read blocks before failing (0: no timeout)
+	 * @throws IOException
+	 */
+	PeerConnection(Host host, int connectTimeout, int readTimeout) throws IOException{
+		epoch = SimulationData.getInstance().getConnectionEpoch();
+		socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host.getAddress(), host.getPort()), connectTimeout);
+			socket.setSoTimeout(readTimeout);
+			in = new SessionInputStream(socket.getInputStream());
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		lastUsed = System.currentTimeMillis();
+	}
+
+	public Socket getSocket(){
+		return socket;
+	}
+
+	/**
+	 * @return input stream of the socket, that records whether the current
+	 * session has received anything (see hasReceived)
+	 */
+	public InputStream getInputStream(){
+		return in;
+	}
+
+	/**
+	 * @return true if the connection was used by a previous session
+	 */
+	public boolean isReused(){
+		return sessions > 1;
+	}
+
+	/**
+	 * @return true if the current session has received some byte from the partner
+	 */
+	public boolean hasReceived(){
+		return received;
+	}
+
+	/**
+	 * @param maxIdle
+	 * @return true if the connection can be used for a new session: it is open,
+	 * the node has not been disconnected since it was opened and it has not
+	 * been idle for more than maxIdle milliseconds
+	 */
+	boolean isReusable(long maxIdle){
+		SimulationData simulation = SimulationData.getInstance();
+		return !socket.isClosed()
+				&& simulation.isConnected()
+				&& simulation.getConnectionEpoch() == epoch
+				&& System.currentTimeMillis() - lastUsed < maxIdle;
+	}
+
+	/**
+	 * a new session starts using the connection
+	 */
+	void startSession(){
+		sessions++;
+		received = false;
+	}
+
+	void touch(){
+		lastUsed = System.currentTimeMillis();
+	}
+
+	void close(){
+		try {
+			socket.close();
+		} catch (IOException ignored) {}
+	}
+
+	private class SessionInputStream extends FilterInputStream {
+		SessionInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				received = true;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				received = true;
+			}
+			return n;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps a long-lived connection to each partner, used for the TSAE
+ * sessions started by this server. Sessions with the same partner use
+ * the connection one after the other: acquire gives exclusive use of the
+ * connection until release is called.
+ *
+ * A connection is re-established (lazily, on the next acquire) when the
+ * previous session failed, the node has been disconnected since the
+ * connection was opened, or it has been idle for too long.
+ */
+public class PeerConnectionManager {
+	// partners close connections that have been idle for IDLE_TIMEOUT milliseconds;
+	// connections idle for half this time are not reused
+	public static final long IDLE_TIMEOUT = 30000;
+	private static final long MAX_REUSE_IDLE = IDLE_TIMEOUT / 2;
+
+	private static class Channel {
+		final ReentrantLock lock = new ReentrantLock();
+		PeerConnection connection;
+	}
+
+	private final ConcurrentHashMap<Host, Channel> channels = new ConcurrentHashMap<Host, Channel>();
+
+	// false: a new connection is opened for each session
+	private volatile boolean persistent = false;
+
+	// milliseconds (0: no timeout)
+	private volatile int connectTimeout = 5000;
+	private volatile int readTimeout = 10000;
+
+	public void setPersistent(boolean persistent){
+		this.persistent = persistent;
+	}
+
+	public void setConnectTimeout(int connectTimeout){
+		this.connectTimeout = connectTimeout;
+	}
+
+	public int getReadTimeout(){
+		return readTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout){
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @param host
+	 * @param timeout maximum time (milliseconds) to wait for the session that
+	 * is using the connection to host
+	 * @return a connection to host. The caller has to call release(host, ...) once the session ends
+	 * @throws SocketTimeoutException if the connection is still in use after timeout
+	 * @throws IOException if it is not possible to connect to host
+	 */
+	public PeerConnection acquire(Host host, long timeout) throws IOException{
+		Channel channel = channel(host);
+		try {
+			if (!channel.lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
+				throw new SocketTimeoutException("Connection to " + host + " in use by another session");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the connection to " + host);
+		}
+		boolean acquired = false;
+		try {
+			if (channel.connection != null && !(persistent && channel.connection.isReusable(MAX_REUSE_IDLE))) {
+				channel.connection.close();
+				channel.connection = null;
+			}
+			if (channel.connection == null) {
+				channel.connection = new PeerConnection(host, connectTimeout, readTimeout);
+			}
+			channel.connection.startSession();
+			acquired = true;
+			return channel.connection;
+		} finally {
+			if (!acquired) {
+				channel.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * ends the use of the connection to host
+	 * @param host
+	 * @param reusable false if the session failed (the connection is closed)
+	 */
+	public void release(Host host, boolean reusable){
+		Channel channel = channels.get(host);
+		if (channel.connection != null) {
+			if (reusable && persistent) {
+				channel.connection.touch();
+			} else {
+				channel.connection.close();
+				channel.connection = null;
+			}
+		}
+		channel.lock.unlock();
+	}
+
+	/**
+	 * closes all connections (connections in use are closed as well, so that
+	 * their sessions end)
+	 */
+	public void closeAll(){
+		for (Channel channel : channels.values()) {
+			PeerConnection connection = channel.connection;
+			if (connection != null) {
+				connection.close();
+			}
+		}
+	}
+
+	private Channel channel(Host host){
+		Channel channel = channels.get(host);
+		if (channel == null) {
+			Channel created = new Channel();
+			channel = channels.putIfAbsent(host, created);
+			if (channel == null) {
+				channel = created;
+			}
+		}
+		return channel;
+	}
+}
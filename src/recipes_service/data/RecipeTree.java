@@ -0,0 +1,251 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable set of recipes ordered by title (an AVL tree).
+ *
+ * Updates copy only the path from the root to the changed node and return
+ * a new tree that shares every other node with the old one: a tree can be
+ * read by any number of threads without locking and keeping it as a
+ * snapshot costs nothing. Each node keeps the size of its subtree, so the
+ * i-th recipe is found in O(log n).
+ */
+final class RecipeTree {
+
+	static final RecipeTree EMPTY = new RecipeTree(null);
+
+	private static final Comparator<Recipe> BY_TITLE = new Comparator<Recipe>() {
+		@Override
+		public int compare(Recipe r1, Recipe r2) {
+			return r1.getTitle().compareTo(r2.getTitle());
+		}
+	};
+
+	private static final class Node {
+		final Recipe recipe;
+		final Node left;
+		final Node right;
+		final int height;
+		final int size;
+
+		Node(Recipe recipe, Node left, Node right) {
+			this.recipe = recipe;
+			this.left = left;
+			this.right = right;
+			this.height = 1 + Math.max(height(left), height(right));
+			this.size = 1 + size(left) + size(right);
+		}
+	}
+
+	private final Node root;
+
+	private RecipeTree(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * @param recipes
+	 * @return a tree with the recipes of the collection (if several recipes
+	 * have the same title, the last one is kept). Costs O(n log n).
+	 */
+	static RecipeTree of(Collection<Recipe> recipes) {
+		Recipe[] sorted = recipes.toArray(new Recipe[recipes.size()]);
+		// stable: recipes with the same title keep their relative order
+		Arrays.sort(sorted, BY_TITLE);
+		int n = 0;
+		for (Recipe recipe : sorted) {
+			if (n > 0 && sorted[n - 1].getTitle().equals(recipe.getTitle())) {
+				sorted[n - 1] = recipe;
+			} else {
+				sorted[n++] = recipe;
+			}
+		}
+		return new RecipeTree(build(sorted, 0, n));
+	}
+
+	int size() {
+		return size(root);
+	}
+
+	boolean isEmpty() {
+		return root == null;
+	}
+
+	Recipe get(String title) {
+		Node node = root;
+		while (node != null) {
+			int c = title.compareTo(node.recipe.getTitle());
+			if (c == 0) {
+				return node.recipe;
+			}
+			node = c < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	/**
+	 * @param i position (0 <= i < size())
+	 * @return the i-th recipe in title order
+	 */
+	Recipe get(int i) {
+		Node node = root;
+		while (true) {
+			int left = size(node.left);
+			if (i < left) {
+				node = node.left;
+			} else if (i > left) {
+				i -= left + 1;
+				node = node.right;
+			} else {
+				return node.recipe;
+			}
+		}
+	}
+
+	/**
+	 * @param recipe
+	 * @return a tree with recipe added (or replacing the one with the same title)
+	 */
+	RecipeTree put(Recipe recipe) {
+		return new RecipeTree(put(root, recipe));
+	}
+
+	/**
+	 * @param title
+	 * @return a tree without the recipe with this title (this tree if there is none)
+	 */
+	RecipeTree remove(String title) {
+		Node removed = remove(root, title);
+		return removed == root ? this : new RecipeTree(removed);
+	}
+
+	/**
+	 * adds to result the recipes of the tree in title order
+	 * @param result
+	 */
+	void addTo(List<Recipe> result) {
+		addTo(root, result);
+	}
+
+	boolean sameAs(RecipeTree other) {
+		return root == other.root;
+	}
+
+	private static int height(Node node) {
+		return node == null ? 0 : node.height;
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static Node build(Recipe[] sorted, int from, int to) {
+		if (from >= to) {
+			return null;
+		}
+		int mid = (from + to) >>> 1;
+		return new Node(sorted[mid], build(sorted, from, mid), build(sorted, mid + 1, to));
+	}
+
+	private static Node put(Node node, Recipe recipe) {
+		if (node == null) {
+			return new Node(recipe, null, null);
+		}
+		int c = recipe.getTitle().compareTo(node.recipe.getTitle());
+		if (c < 0) {
+			return balance(node.recipe, put(node.left, recipe), node.right);
+		}
+		if (c > 0) {
+			return balance(node.recipe, node.left, put(node.right, recipe));
+		}
+		return new Node(recipe, node.left, node.right);
+	}
+
+	private static Node remove(Node node, String title) {
+		if (node == null) {
+			return null;
+		}
+		int c = title.compareTo(node.recipe.getTitle());
+		if (c < 0) {
+			Node left = remove(node.left, title);
+			return left == node.left ? node : balance(node.recipe, left, node.right);
+		}
+		if (c > 0) {
+			Node right = remove(node.right, title);
+			return right == node.right ? node : balance(node.recipe, node.left, right);
+		}
+		if (node.left == null) {
+			return node.right;
+		}
+		if (node.right == null) {
+			return node.left;
+		}
+		Node first = node.right;
+		while (first.left != null) {
+			first = first.left;
+		}
+		return balance(first.recipe, node.left, removeFirst(node.right));
+	}
+
+	private static Node removeFirst(Node node) {
+		if (node.left == null) {
+			return node.right;
+		}
+		return balance(node.recipe, removeFirst(node.left), node.right);
+	}
+
+	/**
+	 * @return a node with recipe and the subtrees left and right, rotated if
+	 * their heights differ by more than one
+	 */
+	private static Node balance(Recipe recipe, Node left, Node right) {
+		if (height(left) > height(right) + 1) {
+			if (height(left.left) >= height(left.right)) {
+				return new Node(left.recipe, left.left, new Node(recipe, left.right, right));
+			}
+			Node lr = left.right;
+			return new Node(lr.recipe, new Node(left.recipe, left.left, lr.left), new Node(recipe, lr.right, right));
+		}
+		if (height(right) > height(left) + 1) {
+			if (height(right.right) >= height(right.left)) {
+				return new Node(right.recipe, new Node(recipe, left, right.left), right.right);
+			}
+			Node rl = right.left;
+			return new Node(rl.recipe, new Node(recipe, left, rl.left), new Node(right.recipe, rl.right, right.right));
+		}
+		return new Node(recipe, left, right);
+	}
+
+	private static void addTo(Node node, List<Recipe> result) {
+		while (node != null) {
+			addTo(node.left, result);
+			result.add(node.recipe);
+			node = node.right;
+		}
+	}
+}
@@ -20,56 +20,105 @@
 
 package recipes_service.data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Random;
-import java.util.TreeMap;
 
 /**
  * @author Joan-Manuel Marques
  * December 2012
  *
+ * Recipes are kept in an immutable tree (see RecipeTree) that is replaced
+ * on every update. Readers only read the current tree, so they never lock
+ * nor wait for writers; writers are serialized on this object. A clone
+ * shares the current tree.
  */
 public class Recipes implements Serializable{
 	
 	private static final long serialVersionUID = -8117147242301640951L;
-	private TreeMap<String,Recipe> recipes = null;
+	private transient volatile RecipeTree recipes;
 	
 	static Random rnd = new Random();
 	
 	
 	public Recipes(){
-		this.recipes = new TreeMap<String,Recipe> (); 
+		this.recipes = RecipeTree.EMPTY;
+	}
+
+	private Recipes(RecipeTree recipes){
+		this.recipes = recipes;
 	}
 	
 	public synchronized void add(Recipe recipe){
-		recipes.put(recipe.getTitle(),recipe);
+		recipes = recipes.put(recipe);
 	}
 	
+	/**
+	 * adds (or replaces) a collection of recipes
+	 * @param recipes
+	 */
+	public synchronized void addAll(Collection<Recipe> recipes){
+		if (this.recipes.isEmpty()) {
+			this.recipes = RecipeTree.of(recipes);
+			return;
+		}
+		RecipeTree tree = this.recipes;
+		for (Recipe recipe : recipes) {
+			tree = tree.put(recipe);
+		}
+		this.recipes = tree;
+	}
+
+	/**
+	 * replaces every recipe by the ones of a collection (at once)
+	 * @param recipes
+	 */
+	public synchronized void replaceAll(Collection<Recipe> recipes){
+		this.recipes = RecipeTree.of(recipes);
+	}
+
+	/**
+	 * replaces every recipe by the ones of another Recipes (at once)
+	 * @param recipes
+	 */
+	public synchronized void replaceAll(Recipes recipes){
+		this.recipes = recipes.recipes;
+	}
+
+	/**
+	 * @return a copy of the list of recipes (ordered by title)
+	 */
+	public List<Recipe> getAll(){
+		RecipeTree tree = recipes;
+		List<Recipe> result = new ArrayList<Recipe>(tree.size());
+		tree.addTo(result);
+		return result;
+	}
+
 	public synchronized void remove(String recipeTitle){
-		recipes.remove(recipeTitle);
+		recipes = recipes.remove(recipeTitle);
 	}
-	public synchronized Recipe get(String recipeTitle){
+	public Recipe get(String recipeTitle){
 		return recipes.get(recipeTitle);
 	}
-	public synchronized boolean contains(String recipeTitle){
-		return recipes.containsKey(recipeTitle);
+	public boolean contains(String recipeTitle){
+		return recipes.get(recipeTitle) != null;
 	}
 	
-	public synchronized String getRandomRecipeTitle(){
-		if (recipes.isEmpty())
+	public String getRandomRecipeTitle(){
+		RecipeTree tree = recipes;
+		if (tree.isEmpty())
 			return null;
-		int n= (((int)(rnd.nextDouble() *10000))%recipes.size());
-		
-		Iterator<String> it = recipes.keySet().iterator();
-		String result = it.next();
-		for (int i = 0 ; i < n; i++){
-			result = it.next();
-		}
-		return result;
+		int n= (((int)(rnd.nextDouble() *10000))%tree.size());
+		return tree.get(n).getTitle();
 	}
 	@Override
-	public synchronized boolean equals(Object obj) {
+	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
 		if (obj == null)
@@ -77,36 +126,52 @@ public class Recipes implements Serializable{
 		if (getClass() != obj.getClass())
 			return false;
 		Recipes other = (Recipes) obj;
-		if (recipes == null) {
-			if (other.recipes != null)
-				return false;
-			else 
-				return true;
-		} else {
-			if (recipes.size() != other.recipes.size()){
-				return false;
-			}
-			boolean equal = true;
-			for (Iterator<String> it = recipes.keySet().iterator(); it.hasNext() && equal; ){
-				String rcp = it.next();
-				equal = recipes.get(rcp).equals(other.recipes.get(rcp));
-				if (!equal){
-				}
+		RecipeTree tree = recipes;
+		RecipeTree otherTree = other.recipes;
+		if (tree.sameAs(otherTree))
+			return true;
+		if (tree.size() != otherTree.size())
+			return false;
+		return getAll().equals(other.getAll());
+	}
+
+	public String toString(){
+		StringBuilder sb = new StringBuilder("{");
+		for (Recipe recipe : getAll()) {
+			if (sb.length() > 1) {
+				sb.append(", ");
 			}
-			return equal;
+			sb.append(recipe.getTitle()).append('=').append(recipe);
 		}
+		return sb.append('}').toString();
+	}
+	
+	/**
+	 * @return a snapshot of the recipes (O(1): it shares the current tree)
+	 */
+	public Recipes clone(){
+		return new Recipes(recipes);
 	}
 
-	public synchronized String toString(){
-		return recipes.toString();
+	/**
+	 * serialization: only the recipes (ordered by title) are written
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		List<Recipe> all = getAll();
+		out.writeInt(all.size());
+		for (Recipe recipe : all) {
+			out.writeObject(recipe);
+		}
 	}
-	
-	public synchronized Recipes clone(){
-		Recipes clone = new Recipes();
-		
-		for (Iterator<Recipe> it = recipes.values().iterator(); it.hasNext();){
-			clone.add(it.next());
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int n = in.readInt();
+		List<Recipe> all = new ArrayList<Recipe>(n);
+		for (int i = 0; i < n; i++) {
+			all.add((Recipe) in.readObject());
 		}
-		return clone;
+		recipes = RecipeTree.of(all);
 	}
 }
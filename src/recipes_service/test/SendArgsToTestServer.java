@@ -129,8 +129,32 @@ public class SendArgsToTestServer {
 			params.put("serverBasePort",properties.getProperty("serverBasePort"));
 			params.put("sessionDelay",properties.getProperty("sessionDelay"));
 			params.put("sessionPeriod",properties.getProperty("sessionPeriod"));
+			params.put("sessionPeriodMin",properties.getProperty("sessionPeriodMin", properties.getProperty("sessionPeriod")));
+			params.put("sessionPeriodMax",properties.getProperty("sessionPeriodMax", properties.getProperty("sessionPeriod")));
 			params.put("numSes",properties.getProperty("numSes"));
 			params.put("propDegree",properties.getProperty("propDegree"));
+			params.put("ackDelta",properties.getProperty("ackDelta", "Off"));
+			params.put("codec",properties.getProperty("codec", "java"));
+			params.put("sessionMode",properties.getProperty("sessionMode", "lockstep"));
+			params.put("persistentConnections",properties.getProperty("persistentConnections", "Off"));
+			params.put("digestHandshake",properties.getProperty("digestHandshake", "Off"));
+			params.put("eagerPush",properties.getProperty("eagerPush", "Off"));
+			params.put("compression",properties.getProperty("compression", "none"));
+			params.put("compressionThreshold",properties.getProperty("compressionThreshold", "1024"));
+			params.put("partnerSelection",properties.getProperty("partnerSelection", "uniform"));
+			params.put("partnerBackoff",properties.getProperty("partnerBackoff", "Off"));
+			params.put("maxConcurrentSessions",properties.getProperty("maxConcurrentSessions", "4"));
+			params.put("sessionRoundDeadline",properties.getProperty("sessionRoundDeadline", "10"));
+			params.put("sessionTimeout",properties.getProperty("sessionTimeout", "30"));
+			params.put("connectTimeout",properties.getProperty("connectTimeout", "5"));
+			params.put("readTimeout",properties.getProperty("readTimeout", "10"));
+			params.put("walDirectory",properties.getProperty("walDirectory", ""));
+			params.put("walSync",properties.getProperty("walSync", "interval"));
+			params.put("walSyncInterval",properties.getProperty("walSyncInterval", "1000"));
+			params.put("walSegmentSize",properties.getProperty("walSegmentSize", "4096"));
+			params.put("checkpointInterval",properties.getProperty("checkpointInterval", "60"));
+			params.put("bootstrap",properties.getProperty("bootstrap", "Off"));
+			params.put("bootstrapThreshold",properties.getProperty("bootstrapThreshold", "0"));
 			params.put("simulationStop",properties.getProperty("simulationStop"));
 			params.put("executionStop",properties.getProperty("executionStop"));
 			params.put("simulationDelay",properties.getProperty("simulationDelay"));
@@ -0,0 +1,94 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.io.Serializable;
+
+/**
+ * A subset of the rows of a TimestampMatrix.
+ *
+ * Used to send an ack to a partner: only the rows that may be newer than
+ * the ack the partner already has are included. As acks are merged taking
+ * the elementwise maximum, merging the delta gives the same result as
+ * merging the whole matrix. A delta with all the rows is the full matrix.
+ */
+public class AckDelta implements Serializable {
+
+	private static final long serialVersionUID = 4907536306183624197L;
+
+	private final HostIndex hosts;
+	// positions (in hosts) of the rows included in the delta
+	private final int[] rows;
+	// row-major contents of the included rows (rows.length x hosts.size())
+	private final long[] cells;
+
+	public AckDelta(HostIndex hosts, int[] rows, long[] cells){
+		this.hosts = hosts;
+		this.rows = rows;
+		this.cells = cells;
+	}
+
+	public HostIndex getHostIndex(){
+		return hosts;
+	}
+
+	public int numRows(){
+		return rows.length;
+	}
+
+	/**
+	 * @param i
+	 * @return position (in the host index) of the i-th included row
+	 */
+	public int getRow(int i){
+		return rows[i];
+	}
+
+	/**
+	 * @param i
+	 * @param column
+	 * @return sequence number of column in the i-th included row
+	 */
+	public long getCell(int i, int column){
+		return cells[i * hosts.size() + column];
+	}
+
+	/**
+	 * @return true if the delta contains all the rows of the matrix
+	 */
+	public boolean isFull(){
+		return rows.length == hosts.size();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder all = new StringBuilder();
+		int n = hosts.size();
+		for (int i = 0; i < rows.length; i++) {
+			all.append(hosts.getId(rows[i])).append(":   ");
+			for (int column = 0; column < n; column++) {
+				all.append(hosts.getId(column)).append(":   ").append(cells[i * n + column]).append("\n");
+			}
+			all.append("\n");
+		}
+		return all.toString();
+	}
+}
@@ -0,0 +1,79 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.data_structures;
+
+/**
+ * 64-bit digests of timestamp vectors and matrices.
+ *
+ * The digest of a vector (or matrix) is the sum of the digests of its
+ * cells, and the digest of a cell depends only on its key (the host, or
+ * the pair of hosts, it belongs to) and its sequence number. Therefore it
+ * is independent of the order of the participants and it can be kept up
+ * to date in constant time each time a cell changes.
+ */
+final class Digests {
+
+	private Digests() {
+	}
+
+	/**
+	 * @param id
+	 * @return key of the cell of participant id in a timestamp vector
+	 */
+	static long key(String id) {
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < id.length(); i++) {
+			hash ^= id.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * @param rowKey
+	 * @param columnKey
+	 * @return key of a cell of a timestamp matrix
+	 */
+	static long key(long rowKey, long columnKey) {
+		return mix(rowKey ^ Long.rotateLeft(columnKey, 29));
+	}
+
+	/**
+	 * @param key
+	 * @param seqnumber
+	 * @return digest of a cell
+	 */
+	static long cell(long key, long seqnumber) {
+		return mix(key + seqnumber * 0x9e3779b97f4a7c15L);
+	}
+
+	// MurmurHash3 finalizer
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93fe53ec5b9L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable table that assigns a dense index (0..size-1) to each
+ * participant id. Tables are interned: all the timestamp vectors and
+ * matrices built from the same list of participants share one instance,
+ * so that they can be combined position by position.
+ */
+public final class HostIndex implements Serializable {
+
+	private static final long serialVersionUID = -6102474329186941384L;
+
+	private static final ConcurrentHashMap<List<String>, HostIndex> interned = new ConcurrentHashMap<List<String>, HostIndex>();
+
+	private final String[] ids;
+	private transient Map<String, Integer> positions;
+	// digest key of each participant (see Digests)
+	private transient long[] keys;
+
+	private HostIndex(String[] ids) {
+		this.ids = ids;
+		this.positions = new HashMap<String, Integer>();
+		this.keys = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			positions.put(ids[i], i);
+			keys[i] = Digests.key(ids[i]);
+		}
+	}
+
+	/**
+	 * @param participants
+	 * @return the (shared) index for the list of participants
+	 */
+	public static HostIndex of(List<String> participants) {
+		List<String> key = new ArrayList<String>(participants);
+		HostIndex index = interned.get(key);
+		if (index == null) {
+			HostIndex created = new HostIndex(key.toArray(new String[key.size()]));
+			index = interned.putIfAbsent(key, created);
+			if (index == null) {
+				index = created;
+			}
+		}
+		return index;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @param i
+	 * @return id of the participant at position i
+	 */
+	public String getId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @param i
+	 * @return digest key of the participant at position i
+	 */
+	long getKey(int i) {
+		return keys[i];
+	}
+
+	/**
+	 * @param id
+	 * @return position of participant id, or -1 if id is not a participant
+	 */
+	public int indexOf(String id) {
+		Integer i = positions.get(id);
+		return i == null ? -1 : i;
+	}
+
+	public List<String> getIds() {
+		return Arrays.asList(ids);
+	}
+
+	/**
+	 * deserialized indexes are replaced by the interned instance
+	 */
+	private Object readResolve() {
+		return of(Arrays.asList(ids));
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(ids);
+	}
+}
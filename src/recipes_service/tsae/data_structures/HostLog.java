@@ -0,0 +1,239 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.data.Operation;
+
+/**
+ * Operations issued by a single host, ordered by sequence number.
+ *
+ * Operations are kept in an array-backed ring so that appending is O(1)
+ * and the first operation newer than a given sequence number is found
+ * with a binary search. The oldest element is at position head; the ring
+ * grows (doubling its capacity) when it is full. Purging advances head
+ * (and the low-water mark) without copying the surviving operations.
+ */
+class HostLog implements Serializable {
+
+	private static final long serialVersionUID = 2620117330946734245L;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// ring buffer (capacity is always a power of two)
+	private transient Operation[] operations;
+	private transient int head;
+	private transient int size;
+
+	// every operation with a sequence number <= lowWaterMark has been purged
+	private long lowWaterMark = Timestamp.NULL_TIMESTAMP_SEQ_NUMBER;
+
+	HostLog() {
+		this.operations = new Operation[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * appends op at the end of the log if it is newer than the
+	 * last operation of the log (or than the purged ones if the log
+	 * is empty).
+	 * @param op
+	 * @return true if op has been appended, false otherwise
+	 */
+	synchronized boolean append(Operation op) {
+		if (size > 0 && op.getTimestamp().compare(get(size - 1).getTimestamp()) <= 0) {
+			return false;
+		}
+		// an operation that has already been purged would never be purged again
+		// (see purgeUpTo)
+		if (op.getTimestamp().getSeqnumber() <= lowWaterMark) {
+			return false;
+		}
+		if (size == operations.length) {
+			grow();
+		}
+		operations[(head + size) & (operations.length - 1)] = op;
+		size++;
+		return true;
+	}
+
+	/**
+	 * adds to result, in order, the operations whose sequence number is
+	 * greater than seqnumber.
+	 * @param seqnumber
+	 * @param result
+	 */
+	synchronized void addNewerThan(long seqnumber, List<Operation> result) {
+		for (int i = firstNewerThan(seqnumber); i < size; i++) {
+			result.add(get(i));
+		}
+	}
+
+	/**
+	 * removes the prefix of operations with a sequence number less or
+	 * equal than seqnumber. Costs O(purged operations).
+	 * @param seqnumber
+	 */
+	synchronized void purgeUpTo(long seqnumber) {
+		if (seqnumber <= lowWaterMark) {
+			return;
+		}
+		int mask = operations.length - 1;
+		while (size > 0 && operations[head].getTimestamp().getSeqnumber() <= seqnumber) {
+			operations[head] = null;
+			head = (head + 1) & mask;
+			size--;
+		}
+		lowWaterMark = seqnumber;
+	}
+
+	/**
+	 * purges the log up to seqnumber if the log has no operation with that
+	 * sequence number or a newer one (the operations in between are missing
+	 * and will never be added: every operation with a sequence number <= seqnumber
+	 * is considered purged)
+	 * @param seqnumber
+	 */
+	synchronized void skipTo(long seqnumber) {
+		if (getLastSeqnumber() < seqnumber) {
+			purgeUpTo(seqnumber);
+		}
+	}
+
+	/**
+	 * @return sequence number of the last operation of the log (of the last
+	 * purged one if the log is empty)
+	 */
+	synchronized long getLastSeqnumber() {
+		return size == 0 ? lowWaterMark : get(size - 1).getTimestamp().getSeqnumber();
+	}
+
+	/**
+	 * @return sequence number of the last purged operation
+	 */
+	synchronized long getLowWaterMark() {
+		return lowWaterMark;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param i position relative to the oldest operation in the log
+	 * @return the i-th operation of the log
+	 */
+	synchronized Operation get(int i) {
+		return operations[(head + i) & (operations.length - 1)];
+	}
+
+	/**
+	 * @param seqnumber
+	 * @return position of the first operation with a sequence number greater
+	 * than seqnumber (size if there is no such operation)
+	 */
+	private int firstNewerThan(long seqnumber) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (get(mid).getTimestamp().getSeqnumber() <= seqnumber) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void grow() {
+		Operation[] grown = new Operation[operations.length << 1];
+		for (int i = 0; i < size; i++) {
+			grown[i] = get(i);
+		}
+		operations = grown;
+		head = 0;
+	}
+
+	/**
+	 * equals
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof HostLog)) {
+			return false;
+		}
+		// copy the operations of other under its own lock: holding both locks
+		// at once would deadlock with a concurrent other.equals(this)
+		List<Operation> others = new ArrayList<Operation>();
+		((HostLog) obj).addNewerThan(Timestamp.NULL_TIMESTAMP_SEQ_NUMBER, others);
+		synchronized (this) {
+			if (size != others.size()) {
+				return false;
+			}
+			for (int i = 0; i < size; i++) {
+				if (!get(i).equals(others.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public synchronized int hashCode() {
+		return size;
+	}
+
+	/**
+	 * serialization: only the operations (in order) are written
+	 */
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeObject(get(i));
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int n = in.readInt();
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < n) {
+			capacity <<= 1;
+		}
+		operations = new Operation[capacity];
+		head = 0;
+		size = 0;
+		for (int i = 0; i < n; i++) {
+			operations[size++] = (Operation) in.readObject();
+		}
+	}
+}
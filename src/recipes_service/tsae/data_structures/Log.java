@@ -24,7 +24,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 
 import recipes_service.data.Operation;
@@ -47,15 +46,15 @@ public class Log implements Serializable {
 	 * This class implements a log, that stores the operations
 	 * received  by a client.
 	 * They are stored in a ConcurrentHashMap (a hash table),
-	 * that stores a list of operations for each member of 
-	 * the group.
+	 * that stores, for each member of the group, its operations
+	 * ordered by sequence number (see HostLog).
 	 */
-	private final ConcurrentHashMap<String, List<Operation>> log = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, HostLog> log = new ConcurrentHashMap<>();
 
 	public Log(List<String> participants){
 		// create an empty log
     for (String participant : participants) {
-      log.put(participant, new Vector<Operation>());
+      log.put(participant, new HostLog());
     }
 	}
 
@@ -69,30 +68,8 @@ public class Log implements Serializable {
 	 * @return true if op is inserted, false otherwise.
 	 */
 	public synchronized boolean add(Operation op){
-			// Get the operation timestamp and the hostID
-			Timestamp opTimestamp = op.getTimestamp();
-			String hostId = opTimestamp.getHostid();
-
-			List<Operation> operations = log.get(hostId);
-
-			if (shouldAddOperation(operations, op)) {
-				log.get(hostId).add(op);
-			} else {
-				Operation lastOp = operations.get(operations.size() - 1);
-        return lastOp.getTimestamp().compare(op.getTimestamp()) < 0;
-			}
-		return true;
-	}
-
-	private boolean shouldAddOperation(List<Operation> operations, Operation operationToAdd) {
-		if (operations.isEmpty()) {
-			// if it is empty I will add the new operation
-			return true;
-		}
-
-		// Otherwise, I will add it only if the operation timestamp is after the last one.
-		Operation lastOperation = operations.get(operations.size() - 1);
-		return operationToAdd.getTimestamp().compare(lastOperation.getTimestamp()) > 0;
+		HostLog operations = log.get(op.getTimestamp().getHostid());
+		return operations != null && operations.append(op);
 	}
 
 	/**
@@ -107,12 +84,7 @@ public class Log implements Serializable {
 		List<Operation> operations = new ArrayList<>();
 
 		for (String hostId : this.log.keySet()) {
-			Timestamp hostIdLastTimestamp = sum.getLast(hostId);
-			for (Operation operation: this.log.get(hostId)) {
-				if (operation.getTimestamp().compare(hostIdLastTimestamp) > 0) {
-					operations.add(operation);
-				}
-			}
+			this.log.get(hostId).addNewerThan(sum.getLastSeqnumber(hostId), operations);
 		}
 
 		return operations;
@@ -126,21 +98,83 @@ public class Log implements Serializable {
 	 * @param ack: ackSummary.
 	 */
 	public synchronized void purgeLog(TimestampMatrix ack){
-		TimestampVector minTSV = ack.minTimestampVector();
+		purgeUpTo(ack.minTimestampVector());
+	}
+
+	/**
+	 * Removes from the log the operations included in sum
+	 * @param sum
+	 */
+	public synchronized void purgeUpTo(TimestampVector sum){
+		for (String hostId : log.keySet()) {
+			log.get(hostId).purgeUpTo(sum.getLastSeqnumber(hostId));
+		}
+	}
+
+	/**
+	 * Used when the operations included in sum are installed without the
+	 * operations themselves (e.g. a snapshot of a partner): for each host
+	 * whose last operation in the log is older than sum, the log is
+	 * purged up to sum, as the operations in between will never be in it.
+	 * @param sum
+	 */
+	public synchronized void skipTo(TimestampVector sum){
 		for (String hostId : log.keySet()) {
-			List<Operation> notRemovedOperations = new ArrayList<>();
-			for (Operation operation : log.get(hostId)) {
-				if (!shouldPurgeOperation(hostId, operation, minTSV)) {
-					notRemovedOperations.add(operation);
-				}
+			log.get(hostId).skipTo(sum.getLastSeqnumber(hostId));
+		}
+	}
+
+	/**
+	 * @param sum
+	 * @return true if the log has every operation that sum does not include
+	 * (none of them has been purged), i.e. the operations listNewer(sum) returns
+	 * bring the owner of sum up to date
+	 */
+	public synchronized boolean canServe(TimestampVector sum){
+		for (String hostId : log.keySet()) {
+			if (log.get(hostId).getLowWaterMark() > sum.getLastSeqnumber(hostId)) {
+				return false;
 			}
-			log.put(hostId, notRemovedOperations);
 		}
+		return true;
 	}
 
-	private boolean shouldPurgeOperation(String hostId, Operation operation, TimestampVector minTSV) {
-		Timestamp opTimestamp = operation.getTimestamp();
-		return minTSV.getLast(hostId) != null && opTimestamp.compare(minTSV.getLast(hostId)) <= 0;
+	/**
+	 * @return for each host, the sequence number of the last operation purged
+	 * from the log
+	 */
+	public synchronized TimestampVector getPurged(){
+		List<String> hosts = new ArrayList<>(log.keySet());
+		long[] seqnumbers = new long[hosts.size()];
+		for (int i = 0; i < seqnumbers.length; i++) {
+			seqnumbers[i] = log.get(hosts.get(i)).getLowWaterMark();
+		}
+		return new TimestampVector(HostIndex.of(hosts), seqnumbers);
+	}
+
+	/**
+	 * @param hostId
+	 * @return sequence number of the last operation of hostId in the log (of
+	 * the last purged one if there is none). add rejects any operation of
+	 * hostId that is not newer.
+	 */
+	public long getLastSeqnumber(String hostId){
+		HostLog operations = log.get(hostId);
+		return operations == null ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : operations.getLastSeqnumber();
+	}
+
+	/**
+	 * @return for each host, the sequence number of the last operation in
+	 * the log (or of the last purged one if there is none). It may be ahead
+	 * of the summary while a TSAE session is receiving operations.
+	 */
+	public synchronized TimestampVector getLast(){
+		List<String> hosts = new ArrayList<>(log.keySet());
+		long[] seqnumbers = new long[hosts.size()];
+		for (int i = 0; i < seqnumbers.length; i++) {
+			seqnumbers[i] = log.get(hosts.get(i)).getLastSeqnumber();
+		}
+		return new TimestampVector(HostIndex.of(hosts), seqnumbers);
 	}
 
 	/**
@@ -175,10 +209,10 @@ public class Log implements Serializable {
 	@Override
 	public synchronized String toString() {
 		StringBuilder name= new StringBuilder();
-		for (Enumeration<List<Operation>> en=log.elements(); en.hasMoreElements(); ) {
-			List<Operation> subLog=en.nextElement();
-      for (Operation operation: subLog) {
-        name.append(operation.toString()).append("\n");
+		for (Enumeration<HostLog> en=log.elements(); en.hasMoreElements(); ) {
+			HostLog subLog=en.nextElement();
+      for (int i = 0; i < subLog.size(); i++) {
+        name.append(subLog.get(i).toString()).append("\n");
       }
 		}
 		
@@ -0,0 +1,103 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.data_structures;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs (other than 0) kept in an open-addressing hash
+ * table with linear probing: no boxing and no entry objects. The table
+ * doubles its capacity when it gets more than half full; elements are
+ * never removed one by one (see Tombstones.purge).
+ */
+class LongHashSet {
+	private static final int INITIAL_CAPACITY = 16;
+
+	// 0 marks an empty slot (capacity is always a power of two)
+	private long[] table = new long[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * @param key (not 0)
+	 * @return true if key was not in the set
+	 */
+	boolean add(long key) {
+		int i = slot(table, key);
+		if (table[i] == key) {
+			return false;
+		}
+		table[i] = key;
+		if (++size > table.length >>> 1) {
+			grow();
+		}
+		return true;
+	}
+
+	boolean contains(long key) {
+		return table[slot(table, key)] == key;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+
+	/**
+	 * @return the elements of the set (in no particular order)
+	 */
+	long[] toArray() {
+		long[] keys = new long[size];
+		int n = 0;
+		for (long key : table) {
+			if (key != 0) {
+				keys[n++] = key;
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * @return position of key in table, or of the empty slot where it would go
+	 */
+	private static int slot(long[] table, long key) {
+		int mask = table.length - 1;
+		int i = (int) Digests.mix(key) & mask;
+		while (table[i] != 0 && table[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void grow() {
+		long[] grown = new long[table.length << 1];
+		for (long key : table) {
+			if (key != 0) {
+				grown[slot(grown, key)] = key;
+			}
+		}
+		table = grown;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+/**
+ * Immutable, versioned copy of the summary and the ack of a server.
+ *
+ * A new snapshot is published each time the summary or the ack change.
+ * The summary and the ack it contains are private copies that are
+ * never modified once the snapshot is published: they can be read
+ * (and sent to partners) without holding any lock, and must not be
+ * modified by the readers.
+ */
+public final class TSAESnapshot {
+	private final long version;
+	private final TimestampVector summary;
+	private final TimestampMatrix ack;
+
+	public TSAESnapshot(long version, TimestampVector summary, TimestampMatrix ack){
+		this.version = version;
+		this.summary = summary;
+		this.ack = ack;
+	}
+
+	public long getVersion(){
+		return version;
+	}
+
+	public TimestampVector getSummary(){
+		return summary;
+	}
+
+	public TimestampMatrix getAck(){
+		return ack;
+	}
+
+	/**
+	 * @param node id of the server that owns the snapshot
+	 * @return true if the row of node in the ack is equal to the summary,
+	 * i.e. a TSAE session would not update it
+	 */
+	public boolean isAckUpToDate(String node){
+		return ack.rowEquals(node, summary);
+	}
+
+	@Override
+	public String toString() {
+		return "TSAESnapshot [version=" + version + ", summary=" + summary + ", ack=" + ack + "]";
+	}
+}
@@ -49,7 +49,11 @@ public class Timestamp implements Serializable{
 	public String getHostid() {
 		return hostid;
 	}
-	
+
+	public long getSeqnumber() {
+		return seqnumber;
+	}
+
 	public boolean isNullTimestamp(){
 		return seqnumber < 0;
 	}
@@ -88,6 +92,11 @@ public class Timestamp implements Serializable{
 			return false;
 		return true;
 	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (hostid == null ? 0 : hostid.hashCode()) + (int) (seqnumber ^ (seqnumber >>> 32));
+	}
 	
 	/**
 	 * toString
@@ -20,15 +20,11 @@
 
 package recipes_service.tsae.data_structures;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.List;
-import java.util.Iterator;
-import java.util.concurrent.ConcurrentHashMap;
-
-import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 
 /**
  * @author Joan-Manuel Marques, Daniel Lázaro Iglesias
@@ -38,71 +34,353 @@ import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 public class TimestampMatrix implements Serializable{
 	
 	private static final long serialVersionUID = 3331148113387926667L;
-	ConcurrentHashMap<String, TimestampVector> timestampMatrix = new ConcurrentHashMap<>();
+	/**
+	 * The ack matrix is stored as a single row-major long[n*n]: the row of
+	 * node i (the summary that node i is known to have) is
+	 * cells[i*n .. i*n+n-1]. Positions are given by a shared HostIndex.
+	 */
+	private final HostIndex hosts;
+	private final long[] cells;
+
+	// cached result of minTimestampVector (null if it has to be computed from scratch)
+	// and columns of the cache that are not up to date
+	private transient long[] min;
+	private transient boolean[] dirtyColumns;
+	private transient int numDirtyColumns;
+
+	// digest of the matrix (see Digests), kept up to date on each change
+	private transient long digest;
 	
 	public TimestampMatrix(List<String> participants){
 		// create and empty TimestampMatrix
-    for (String participant : participants) {
-      timestampMatrix.put(participant, new TimestampVector(participants));
-    }
+		this(HostIndex.of(participants));
+	}
+
+	private TimestampMatrix(HostIndex hosts){
+		this.hosts = hosts;
+		this.cells = new long[hosts.size() * hosts.size()];
+		Arrays.fill(cells, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+		this.digest = computeDigest();
+	}
+
+	private TimestampMatrix(HostIndex hosts, long[] cells, long digest){
+		this.hosts = hosts;
+		this.cells = cells;
+		this.digest = digest;
+	}
+
+	/**
+	 * @return digest of the matrix: equal matrices have the same digest
+	 * (whatever the order of their participants)
+	 */
+	public synchronized long digest(){
+		return digest;
+	}
+
+	/**
+	 * @param node
+	 * @param tsVector
+	 * @return true if the timestamp vector of node in this matrix is equal to tsVector
+	 */
+	synchronized boolean rowEquals(String node, TimestampVector tsVector){
+		TimestampVector row = getTimestampVector(node);
+		return row != null && row.equals(tsVector);
 	}
 	
 	/**
 	 * @param node
-	 * @return the timestamp vector of node in this timestamp matrix
+	 * @return a copy of the timestamp vector of node in this timestamp matrix
 	 */
-	TimestampVector getTimestampVector(String node) {
-		if (timestampMatrix.containsKey(node)){
-			return timestampMatrix.get(node);
+	synchronized TimestampVector getTimestampVector(String node) {
+		int row = hosts.indexOf(node);
+		if (row < 0){
+			return null;
 		}
-		return null;
+		int n = hosts.size();
+		return new TimestampVector(hosts, Arrays.copyOfRange(cells, row * n, row * n + n));
 	}
 	
+	/**
+	 * @param node
+	 * @param tsVector
+	 * @return number of operations in tsVector that, according to the
+	 * timestamp vector of node in this matrix, node has not received
+	 * (0 if node is unknown)
+	 */
+	public synchronized long missing(String node, TimestampVector tsVector) {
+		int row = hosts.indexOf(node);
+		if (row < 0) {
+			return 0;
+		}
+		int n = hosts.size();
+		long[] other = new long[n];
+		Arrays.fill(other, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+		tsVector.copyInto(hosts, other, 0);
+		long missing = 0;
+		for (int column = 0; column < n; column++) {
+			missing += Math.max(other[column] - cells[row * n + column], 0);
+		}
+		return missing;
+	}
+
 	/**
 	 * Merges two timestamp matrix taking the elementwise maximum
 	 * @param tsMatrix
 	 */
 	public void updateMax(TimestampMatrix tsMatrix){
-    for (String node : timestampMatrix.keySet()) {
-      timestampMatrix.get(node).updateMax(tsMatrix.getTimestampVector(node));
-    }
+		long[] other = tsMatrix.copyCells();
+		synchronized (this) {
+			int n = hosts.size();
+			if (tsMatrix.hosts == hosts) {
+				for (int base = 0; base < cells.length; base += n) {
+					for (int column = 0; column < n; column++) {
+						if (other[base + column] > cells[base + column]) {
+							set(base + column, column, other[base + column]);
+						}
+					}
+				}
+				return;
+			}
+			int m = tsMatrix.hosts.size();
+			for (int row = 0; row < n; row++) {
+				int otherRow = tsMatrix.hosts.indexOf(hosts.getId(row));
+				if (otherRow < 0) {
+					continue;
+				}
+				for (int column = 0; column < n; column++) {
+					int otherColumn = tsMatrix.hosts.indexOf(hosts.getId(column));
+					if (otherColumn >= 0 && other[otherRow * m + otherColumn] > cells[row * n + column]) {
+						set(row * n + column, column, other[otherRow * m + otherColumn]);
+					}
+				}
+			}
+		}
 	}
 	
+	/**
+	 * Merges the rows included in delta taking the elementwise maximum
+	 * @param delta
+	 */
+	public synchronized void updateMax(AckDelta delta){
+		int n = hosts.size();
+		HostIndex other = delta.getHostIndex();
+		int[] columns = new int[n];
+		for (int column = 0; column < n; column++) {
+			columns[column] = other == hosts ? column : other.indexOf(hosts.getId(column));
+		}
+		for (int i = 0; i < delta.numRows(); i++) {
+			int row = other == hosts ? delta.getRow(i) : hosts.indexOf(other.getId(delta.getRow(i)));
+			if (row < 0) {
+				continue;
+			}
+			for (int column = 0; column < n; column++) {
+				if (columns[column] >= 0) {
+					long value = delta.getCell(i, columns[column]);
+					if (value > cells[row * n + column]) {
+						set(row * n + column, column, value);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Substitutes the rows included in delta for the ones of the delta
+	 * (columns unknown to the delta are left untouched)
+	 * @param delta
+	 */
+	public synchronized void replaceRows(AckDelta delta){
+		int n = hosts.size();
+		HostIndex other = delta.getHostIndex();
+		int[] columns = new int[n];
+		for (int column = 0; column < n; column++) {
+			columns[column] = other == hosts ? column : other.indexOf(hosts.getId(column));
+		}
+		for (int i = 0; i < delta.numRows(); i++) {
+			int row = other == hosts ? delta.getRow(i) : hosts.indexOf(other.getId(delta.getRow(i)));
+			if (row < 0) {
+				continue;
+			}
+			for (int column = 0; column < n; column++) {
+				if (columns[column] >= 0) {
+					long value = delta.getCell(i, columns[column]);
+					if (value != cells[row * n + column]) {
+						set(row * n + column, column, value);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param baseline an ack known to be older or equal than the ack of the
+	 * receiver of the delta (null if unknown)
+	 * @return the rows of this matrix that have some timestamp newer than
+	 * the baseline (all the rows if there is no baseline)
+	 */
+	public synchronized AckDelta delta(TimestampMatrix baseline){
+		int n = hosts.size();
+		long[] base = null;
+		if (baseline != null) {
+			if (baseline.hosts == hosts) {
+				base = baseline.copyCells();
+			} else {
+				base = new long[cells.length];
+				for (int row = 0; row < n; row++) {
+					TimestampVector baselineRow = baseline.getTimestampVector(hosts.getId(row));
+					if (baselineRow == null) {
+						Arrays.fill(base, row * n, row * n + n, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+					} else {
+						baselineRow.copyInto(hosts, base, row * n);
+					}
+				}
+			}
+		}
+		int[] rows = new int[n];
+		int numRows = 0;
+		for (int row = 0; row < n; row++) {
+			if (base == null || newerRow(base, row * n, n)) {
+				rows[numRows++] = row;
+			}
+		}
+		long[] deltaCells = new long[numRows * n];
+		for (int i = 0; i < numRows; i++) {
+			System.arraycopy(cells, rows[i] * n, deltaCells, i * n, n);
+		}
+		return new AckDelta(hosts, Arrays.copyOf(rows, numRows), deltaCells);
+	}
+
+	private boolean newerRow(long[] base, int offset, int n) {
+		for (int i = offset; i < offset + n; i++) {
+			if (cells[i] > base[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * substitutes current timestamp vector of node for tsVector
 	 * @param node
 	 * @param tsVector
 	 */
-	public void update(String node, TimestampVector tsVector){
-		timestampMatrix.replace(node, tsVector);
+	public synchronized void update(String node, TimestampVector tsVector){
+		int row = hosts.indexOf(node);
+		if (row < 0) {
+			return;
+		}
+		int n = hosts.size();
+		long[] newRow = Arrays.copyOfRange(cells, row * n, row * n + n);
+		tsVector.copyInto(hosts, newRow, 0);
+		for (int column = 0; column < n; column++) {
+			if (newRow[column] != cells[row * n + column]) {
+				set(row * n + column, column, newRow[column]);
+			}
+		}
+	}
+
+	/**
+	 * sets a cell keeping the cached minimum up to date: a smaller value
+	 * lowers the minimum of its column; a cell that held the minimum and
+	 * grows makes the column dirty.
+	 */
+	private void set(int cell, int column, long value) {
+		long old = cells[cell];
+		cells[cell] = value;
+		long key = cellKey(cell / hosts.size(), column);
+		digest += Digests.cell(key, value) - Digests.cell(key, old);
+		if (min == null) {
+			return;
+		}
+		if (value < min[column]) {
+			min[column] = value;
+		} else if (old == min[column] && !dirtyColumns[column]) {
+			dirtyColumns[column] = true;
+			numDirtyColumns++;
+		}
 	}
 	
+	/**
+	 * @return a copy of the cells, taken under the lock of this matrix only
+	 */
+	private synchronized long[] copyCells() {
+		return cells.clone();
+	}
+
+	private long cellKey(int row, int column) {
+		return Digests.key(hosts.getKey(row), hosts.getKey(column));
+	}
+
+	private long computeDigest() {
+		int n = hosts.size();
+		long sum = 0;
+		for (int row = 0; row < n; row++) {
+			for (int column = 0; column < n; column++) {
+				sum += Digests.cell(cellKey(row, column), cells[row * n + column]);
+			}
+		}
+		return sum;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		digest = computeDigest();
+	}
+
 	/**
 	 * 
 	 * @return a timestamp vector containing, for each node, 
 	 * the timestamp known by all participants
 	 */
-	public TimestampVector minTimestampVector(){
-		TimestampVector min = null;
+	public synchronized TimestampVector minTimestampVector(){
+		int n = hosts.size();
+		if (n == 0) {
+			return null;
+		}
+		if (min == null) {
+			min = columnMin(cells, n);
+			dirtyColumns = new boolean[n];
+			numDirtyColumns = 0;
+		} else if (numDirtyColumns > 0) {
+			for (int column = 0; column < n; column++) {
+				if (dirtyColumns[column]) {
+					long m = cells[column];
+					for (int cell = column + n; cell < cells.length; cell += n) {
+						m = Math.min(m, cells[cell]);
+					}
+					min[column] = m;
+					dirtyColumns[column] = false;
+				}
+			}
+			numDirtyColumns = 0;
+		}
+		return new TimestampVector(hosts, min.clone());
+	}
 
-    for (String host : timestampMatrix.keySet()) {
-      if (min == null) {
-        min = timestampMatrix.get(host).clone();
-      } else {
-        min.mergeMin(timestampMatrix.get(host));
-      }
-    }
-		return min;
+	/**
+	 * column-wise minimum of a row-major n x n matrix. Rows are traversed
+	 * sequentially so that the inner loop is a unit-stride min over two
+	 * arrays, which the JIT compiles to SIMD instructions.
+	 */
+	private static long[] columnMin(long[] cells, int n) {
+		long[] result = Arrays.copyOf(cells, n);
+		for (int base = n; base < cells.length; base += n) {
+			for (int column = 0; column < n; column++) {
+				result[column] = Math.min(result[column], cells[base + column]);
+			}
+		}
+		return result;
 	}
 	
 	/**
 	 * clone
 	 */
-	public TimestampMatrix clone(){
-		List<String> hosts = new ArrayList<>(timestampMatrix.keySet());
-		TimestampMatrix matrix = new TimestampMatrix(hosts);
-		for (String participant: timestampMatrix.keySet()) {
-			matrix.update(participant, timestampMatrix.get(participant));
+	public synchronized TimestampMatrix clone(){
+		TimestampMatrix matrix = new TimestampMatrix(hosts, cells.clone(), digest);
+		if (min != null) {
+			matrix.min = min.clone();
+			matrix.dirtyColumns = dirtyColumns.clone();
+			matrix.numDirtyColumns = numDirtyColumns;
 		}
 		return matrix;
 	}
@@ -119,24 +397,55 @@ public class TimestampMatrix implements Serializable{
 			return false;
 		}
 		TimestampMatrix other = (TimestampMatrix) obj;
-		return other.timestampMatrix.equals(timestampMatrix);
+		// each matrix is read under its own lock only
+		long[] cells = copyCells();
+		long[] otherCells = other.copyCells();
+		if (hosts == other.hosts) {
+			return Arrays.equals(cells, otherCells);
+		}
+		int n = hosts.size();
+		if (n != other.hosts.size()) {
+			return false;
+		}
+		for (int row = 0; row < n; row++) {
+			int otherRow = other.hosts.indexOf(hosts.getId(row));
+			if (otherRow < 0) {
+				return false;
+			}
+			for (int column = 0; column < n; column++) {
+				int otherColumn = other.hosts.indexOf(hosts.getId(column));
+				if (otherColumn < 0 || cells[row * n + column] != otherCells[otherRow * n + otherColumn]) {
+					return false;
+				}
+			}
+		}
+		return true;
   }
 
+	@Override
+	public int hashCode() {
+		// independent of the order of the participants (see equals)
+		long[] cells = copyCells();
+		int n = hosts.size();
+		int hash = 0;
+		for (int row = 0; row < n; row++) {
+			for (int column = 0; column < n; column++) {
+				long value = cells[row * n + column];
+				hash += (31 * hosts.getId(row).hashCode() + hosts.getId(column).hashCode()) ^ (int) (value ^ (value >>> 32));
+			}
+		}
+		return hash;
+	}
 	
 	/**
 	 * toString
 	 */
 	@Override
 	public synchronized String toString() {
-		String all="";
-		if(timestampMatrix==null){
-			return all;
-		}
-		for(Enumeration<String> en=timestampMatrix.keys(); en.hasMoreElements();){
-			String name=en.nextElement();
-			if(timestampMatrix.get(name)!=null)
-				all+=name+":   "+timestampMatrix.get(name)+"\n";
+		StringBuilder all = new StringBuilder();
+		for (int row = 0; row < hosts.size(); row++) {
+			all.append(hosts.getId(row)).append(":   ").append(getTimestampVector(hosts.getId(row))).append("\n");
 		}
-		return all;
+		return all.toString();
 	}
 }
@@ -22,11 +22,11 @@ package recipes_service.tsae.data_structures;
 
 
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import lsim.library.api.LSimLogger;
@@ -45,15 +45,85 @@ public class TimestampVector implements Serializable {
 	private static final long serialVersionUID = -765026247959198886L;
 	/**
 	 * This class stores a summary of the timestamps seen by a node.
-	 * For each node, stores the timestamp of the last received operation.
+	 * For each node, stores the sequence number of the last received operation.
+	 * Sequence numbers are kept in a long[] indexed by the position of each
+	 * node in a shared HostIndex, so that merges and clones are loops over
+	 * primitives and a serialized vector costs 8 bytes per node.
 	 */
 	
-	private final ConcurrentHashMap<String, Timestamp> timestampVector = new ConcurrentHashMap<String, Timestamp>();
+	// marks the positions of nodes unknown to a vector (see alignedCopyOf)
+	private static final long ABSENT = Long.MIN_VALUE;
+
+	private final HostIndex hosts;
+	private final long[] seqnumbers;
+	// digest of the vector (see Digests), kept up to date on each change
+	private transient long digest;
 	
 	public TimestampVector (List<String> participants){
-		for (String id: participants) {
-			// when sequence number of timestamp < 0 it means that the timestamp is the null timestamp
-			timestampVector.put(id, new Timestamp(id, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER));
+		this(HostIndex.of(participants));
+	}
+
+	TimestampVector (HostIndex hosts){
+		this.hosts = hosts;
+		this.seqnumbers = new long[hosts.size()];
+		// when sequence number of timestamp < 0 it means that the timestamp is the null timestamp
+		Arrays.fill(seqnumbers, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+		this.digest = computeDigest();
+	}
+
+	/**
+	 * @param hosts
+	 * @param seqnumbers sequence number of each host of the index (the array is not copied)
+	 */
+	public TimestampVector (HostIndex hosts, long[] seqnumbers){
+		this.hosts = hosts;
+		this.seqnumbers = seqnumbers;
+		this.digest = computeDigest();
+	}
+
+	private TimestampVector (HostIndex hosts, long[] seqnumbers, long digest){
+		this.hosts = hosts;
+		this.seqnumbers = seqnumbers;
+		this.digest = digest;
+	}
+
+	public HostIndex getHostIndex(){
+		return hosts;
+	}
+
+	/**
+	 * @return a copy of the sequence numbers, following the positions of the host index
+	 */
+	public synchronized long[] toArray(){
+		return seqnumbers.clone();
+	}
+
+	/**
+	 * @return digest of the vector: equal vectors have the same digest
+	 * (whatever the order of their participants)
+	 */
+	public synchronized long digest(){
+		return digest;
+	}
+
+	/**
+	 * copies the sequence numbers of this vector into dest (starting at
+	 * offset) following the positions of the target index. Positions of
+	 * nodes unknown to this vector are left untouched.
+	 * @param target
+	 * @param dest
+	 * @param offset
+	 */
+	synchronized void copyInto(HostIndex target, long[] dest, int offset){
+		if (target == hosts) {
+			System.arraycopy(seqnumbers, 0, dest, offset, seqnumbers.length);
+			return;
+		}
+		for (int i = 0; i < target.size(); i++) {
+			int j = hosts.indexOf(target.getId(i));
+			if (j >= 0) {
+				dest[offset + i] = seqnumbers[j];
+			}
 		}
 	}
 
@@ -63,19 +133,23 @@ public class TimestampVector implements Serializable {
 	 */
 	public synchronized void updateTimestamp(Timestamp timestamp){
 		LSimLogger.log(Level.TRACE, "Updating the TimestampVectorInserting with the timestamp: " + timestamp);
-		this.timestampVector.replace(timestamp.getHostid(), timestamp);
+		int i = hosts.indexOf(timestamp.getHostid());
+		if (i >= 0) {
+			set(i, timestamp.getSeqnumber());
+		}
 	}
 	
 	/**
 	 * merge in another vector, taking the elementwise maximum
 	 * @param tsVector (a timestamp vector)
 	 */
-	public synchronized void updateMax(TimestampVector tsVector) {
-		for (String key : this.timestampVector.keySet()) {
-			Timestamp currentHostTimestamp = this.getLast(key);
-			Timestamp newTimestamp = tsVector.getLast(key);
-			if (isNewerTimestamp(newTimestamp, currentHostTimestamp)) {
-				updateTimestamp(newTimestamp);
+	public void updateMax(TimestampVector tsVector) {
+		long[] other = alignedCopyOf(tsVector);
+		synchronized (this) {
+			for (int i = 0; i < seqnumbers.length; i++) {
+				if (other[i] != ABSENT && other[i] > seqnumbers[i]) {
+					set(i, other[i]);
+				}
 			}
 		}
 	}
@@ -86,8 +160,22 @@ public class TimestampVector implements Serializable {
 	 * @return the last timestamp issued by node that has been
 	 * received.
 	 */
-	public Timestamp getLast(String node) {
-		return this.timestampVector.get(node);
+	public synchronized Timestamp getLast(String node) {
+		int i = hosts.indexOf(node);
+		if (i < 0) {
+			return null;
+		}
+		return new Timestamp(node, seqnumbers[i]);
+	}
+
+	/**
+	 * @param node
+	 * @return sequence number of the last timestamp issued by node that has
+	 * been received (the null timestamp sequence number if node is unknown).
+	 */
+	public synchronized long getLastSeqnumber(String node) {
+		int i = hosts.indexOf(node);
+		return i < 0 ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : seqnumbers[i];
 	}
 	
 	/**
@@ -96,36 +184,73 @@ public class TimestampVector implements Serializable {
 	 * After merging, local node will have the smallest timestamp for each node.
 	 *  @param tsVector (timestamp vector)
 	 */
-	public synchronized void mergeMin(TimestampVector tsVector){
-		for (String key: tsVector.timestampVector.keySet()) {
-			Timestamp otherHostTimestamp = tsVector.timestampVector.get(key);
-			Timestamp currentTimestamp = this.timestampVector.get(key);
-			if(isOlderTimestamp(otherHostTimestamp, currentTimestamp)) {
-				updateTimestamp(otherHostTimestamp);
+	public void mergeMin(TimestampVector tsVector){
+		long[] other = alignedCopyOf(tsVector);
+		synchronized (this) {
+			for (int i = 0; i < seqnumbers.length; i++) {
+				if (other[i] != ABSENT && other[i] < seqnumbers[i]) {
+					set(i, other[i]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param tsVector
+	 * @return number of operations included in this vector that tsVector
+	 * does not include (0 if tsVector includes every operation of this one)
+	 */
+	public long countNewer(TimestampVector tsVector){
+		long[] other = alignedCopyOf(tsVector);
+		long newer = 0;
+		synchronized (this) {
+			for (int i = 0; i < seqnumbers.length; i++) {
+				// the first operation of each host has sequence number 0
+				long last = seqnumbers[i] == Timestamp.NULL_TIMESTAMP_SEQ_NUMBER ? -1 : seqnumbers[i];
+				long otherLast = other[i] == Timestamp.NULL_TIMESTAMP_SEQ_NUMBER || other[i] == ABSENT ? -1 : other[i];
+				newer += Math.max(last - otherLast, 0);
 			}
 		}
+		return newer;
 	}
 
-	private boolean isNewerTimestamp(Timestamp timestamp, Timestamp newerThan) {
-		return timestamp.compare(newerThan) > 0;
+	/**
+	 * @param tsVector
+	 * @return a copy of the sequence numbers of tsVector following the positions
+	 * of the host index of this vector (ABSENT for the nodes unknown to tsVector),
+	 * taken under the lock of tsVector only
+	 */
+	private long[] alignedCopyOf(TimestampVector tsVector) {
+		long[] other = new long[hosts.size()];
+		Arrays.fill(other, ABSENT);
+		tsVector.copyInto(hosts, other, 0);
+		return other;
 	}
 
-	private boolean isOlderTimestamp(Timestamp timestamp, Timestamp olderThan) {
-		return timestamp.compare(olderThan) < 0;
+	private void set(int i, long seqnumber) {
+		long key = hosts.getKey(i);
+		digest += Digests.cell(key, seqnumber) - Digests.cell(key, seqnumbers[i]);
+		seqnumbers[i] = seqnumber;
 	}
-	
+
+	private long computeDigest() {
+		long sum = 0;
+		for (int i = 0; i < seqnumbers.length; i++) {
+			sum += Digests.cell(hosts.getKey(i), seqnumbers[i]);
+		}
+		return sum;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		digest = computeDigest();
+	}
+
 	/**
 	 * clone
 	 */
-	public TimestampVector clone(){
-		List<String> participants = new ArrayList<>(timestampVector.keySet());
-		TimestampVector clonedVector = new TimestampVector(participants);
-
-		for (String key : timestampVector.keySet()) {
-			Timestamp ts = this.timestampVector.get(key);
-			clonedVector.timestampVector.put(ts.getHostid(), ts);
-		}
-		return clonedVector;
+	public synchronized TimestampVector clone(){
+		return new TimestampVector(hosts, seqnumbers.clone(), digest);
 	}
 	
 	/**
@@ -140,16 +265,23 @@ public class TimestampVector implements Serializable {
 			return false;
 		}
 		TimestampVector otherTimestampVector = (TimestampVector) obj;
-    if (timestampVector.size() != otherTimestampVector.timestampVector.size()) {
-      return false;
-    }
-    for (String hostId: timestampVector.keySet()) {
-      if (!timestampVector.get(hostId).equals(otherTimestampVector.timestampVector.get(hostId))) {
-        return false;
-      }
-    }
-    return true;
-  }
+		if (hosts.size() != otherTimestampVector.hosts.size()) {
+			return false;
+		}
+		// both vectors are copied (each one under its own lock) before comparing them
+		return Arrays.equals(toArray(), alignedCopyOf(otherTimestampVector));
+	}
+
+	@Override
+	public int hashCode() {
+		// independent of the order of the participants (see equals)
+		long[] copy = toArray();
+		int hash = 0;
+		for (int i = 0; i < copy.length; i++) {
+			hash += hosts.getId(i).hashCode() ^ (int) (copy[i] ^ (copy[i] >>> 32));
+		}
+		return hash;
+	}
 
 	/**
 	 * toString
@@ -157,10 +289,8 @@ public class TimestampVector implements Serializable {
 	@Override
 	public synchronized String toString() {
 		StringBuilder all = new StringBuilder();
-    for(Enumeration<String> en=timestampVector.keys(); en.hasMoreElements();){
-			String name=en.nextElement();
-			if(timestampVector.get(name)!=null)
-				all.append(timestampVector.get(name)).append("\n");
+		for (int i = 0; i < seqnumbers.length; i++) {
+			all.append(hosts.getId(i)).append(":   ").append(seqnumbers[i]).append("\n");
 		}
 		return all.toString();
 	}
@@ -0,0 +1,157 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.data_structures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Timestamps of the recipes whose remove operation has been received
+ * before their add operation: the add operation must not add them.
+ *
+ * Each timestamp is packed into a long (position of its host in the host
+ * index and sequence number) and kept in a LongHashSet, so that the check
+ * done for each received add operation costs O(1). A tombstone is useless
+ * once every participant has received the add operation it stands for
+ * (it will never be applied again), so tombstones are purged each time
+ * the log is (see purge).
+ */
+public class Tombstones {
+	private static final int SEQNUMBER_BITS = 48;
+	private static final long SEQNUMBER_MASK = (1L << SEQNUMBER_BITS) - 1;
+
+	private final HostIndex hosts;
+	private final LongHashSet packed = new LongHashSet();
+	// tombstones that cannot be packed (host that is not a participant)
+	private final Set<Timestamp> others = new HashSet<Timestamp>();
+
+	public Tombstones(List<String> participants){
+		this.hosts = HostIndex.of(participants);
+	}
+
+	/**
+	 * @param timestamp timestamp of a removed recipe
+	 */
+	public synchronized void add(Timestamp timestamp){
+		long key = pack(timestamp);
+		if (key != 0) {
+			packed.add(key);
+		} else if (timestamp != null) {
+			others.add(timestamp);
+		}
+	}
+
+	/**
+	 * @param timestamp timestamp of a recipe
+	 * @return true if the recipe has been removed
+	 */
+	public synchronized boolean contains(Timestamp timestamp){
+		long key = pack(timestamp);
+		if (key != 0) {
+			return packed.contains(key);
+		}
+		return timestamp != null && others.contains(timestamp);
+	}
+
+	/**
+	 * Removes the tombstones of the recipes whose add operation is included
+	 * in sum (the minimum timestamp vector of the ack: every participant has
+	 * received it)
+	 * @param sum
+	 */
+	public synchronized void purge(TimestampVector sum){
+		if (packed.size() > 0) {
+			long[] last = new long[hosts.size()];
+			Arrays.fill(last, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+			sum.copyInto(hosts, last, 0);
+			long[] keys = packed.toArray();
+			int kept = 0;
+			for (long key : keys) {
+				if ((key & SEQNUMBER_MASK) > last[(int) (key >>> SEQNUMBER_BITS) - 1]) {
+					keys[kept++] = key;
+				}
+			}
+			if (kept < keys.length) {
+				packed.clear();
+				for (int i = 0; i < kept; i++) {
+					packed.add(keys[i]);
+				}
+			}
+		}
+		List<Timestamp> purged = new ArrayList<Timestamp>();
+		for (Timestamp timestamp : others) {
+			if (timestamp.getSeqnumber() <= sum.getLastSeqnumber(timestamp.getHostid())) {
+				purged.add(timestamp);
+			}
+		}
+		others.removeAll(purged);
+	}
+
+	/**
+	 * replaces every tombstone by the ones of a collection
+	 * @param timestamps
+	 */
+	public synchronized void replaceAll(Collection<Timestamp> timestamps){
+		packed.clear();
+		others.clear();
+		for (Timestamp timestamp : timestamps) {
+			add(timestamp);
+		}
+	}
+
+	/**
+	 * @return a copy of the tombstones
+	 */
+	public synchronized List<Timestamp> toList(){
+		List<Timestamp> timestamps = new ArrayList<Timestamp>(packed.size() + others.size());
+		for (long key : packed.toArray()) {
+			timestamps.add(new Timestamp(hosts.getId((int) (key >>> SEQNUMBER_BITS) - 1), key & SEQNUMBER_MASK));
+		}
+		timestamps.addAll(others);
+		return timestamps;
+	}
+
+	public synchronized int size(){
+		return packed.size() + others.size();
+	}
+
+	/**
+	 * @return timestamp packed into a long (0 if it cannot be packed): the
+	 * position of the host (plus one, so that it is never 0) in the upper
+	 * bits and the sequence number in the lower SEQNUMBER_BITS
+	 */
+	private long pack(Timestamp timestamp){
+		if (timestamp == null) {
+			return 0;
+		}
+		int i = hosts.indexOf(timestamp.getHostid());
+		long seqnumber = timestamp.getSeqnumber();
+		if (i < 0 || seqnumber < 0 || seqnumber > SEQNUMBER_MASK) {
+			return 0;
+		}
+		return ((long) (i + 1) << SEQNUMBER_BITS) | seqnumber;
+	}
+}
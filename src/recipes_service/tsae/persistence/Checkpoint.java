@@ -0,0 +1,179 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import recipes_service.communication.BinaryMessageCodec;
+import recipes_service.data.Recipe;
+import recipes_service.tsae.data_structures.AckDelta;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Consistent copy of the state of a server (recipes, summary, ack and
+ * tombstones) that the operations of the WriteAheadLog are replayed onto.
+ * It includes every operation of the segments before walSegment. It is
+ * also the snapshot sent to bootstrap a lagging replica (see
+ * recipes_service.tsae.sessions.Bootstrap).
+ *
+ * It is written with the primitives of BinaryMessageCodec (varints and
+ * interned host ids): a header, the summary, the purged operations of the
+ * log, the ack, the tombstones and the recipes, followed by their CRC32.
+ */
+public class Checkpoint {
+	private static final int MAGIC = 0x54534350;
+	private static final int FORMAT = 1;
+
+	// recipe timestamps
+	private static final int NO_TIMESTAMP = 0;
+	private static final int TIMESTAMP = 1;
+
+	// version of the TSAESnapshot that was current when it was taken (not written)
+	private final long version;
+	private final long walSegment;
+	private final TimestampVector summary;
+	// last operation of each host purged from the log
+	private final TimestampVector purged;
+	private final AckDelta ack;
+	private final List<Timestamp> tombstones;
+	private final List<Recipe> recipes;
+
+	public Checkpoint(long version, long walSegment, TimestampVector summary, TimestampVector purged, AckDelta ack, List<Timestamp> tombstones, List<Recipe> recipes){
+		this.version = version;
+		this.walSegment = walSegment;
+		this.summary = summary;
+		this.purged = purged;
+		this.ack = ack;
+		this.tombstones = tombstones;
+		this.recipes = recipes;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+	public long getWalSegment() {
+		return walSegment;
+	}
+	public TimestampVector getSummary() {
+		return summary;
+	}
+	public TimestampVector getPurged() {
+		return purged;
+	}
+	public AckDelta getAck() {
+		return ack;
+	}
+	public List<Timestamp> getTombstones() {
+		return tombstones;
+	}
+	public List<Recipe> getRecipes() {
+		return recipes;
+	}
+
+	/**
+	 * writes the checkpoint followed by its CRC32
+	 * @param stream
+	 * @throws IOException
+	 */
+	public void write(OutputStream stream) throws IOException{
+		CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+		BinaryMessageCodec.Output out = new BinaryMessageCodec.Output(checked);
+		out.writeVarInt(MAGIC);
+		out.writeVarInt(FORMAT);
+		out.writeVarLong(walSegment);
+		out.writeTimestampVector(summary);
+		out.writeTimestampVector(purged);
+		out.writeAckDelta(ack);
+		out.writeVarInt(tombstones.size());
+		for (Timestamp tombstone : tombstones) {
+			out.writeTimestamp(tombstone);
+		}
+		out.writeVarInt(recipes.size());
+		for (Recipe recipe : recipes) {
+			out.writeString(recipe.getTitle());
+			out.writeString(recipe.getRecipe());
+			out.writeInternedString(recipe.getAuthor());
+			if (recipe.getTimestamp() == null) {
+				out.writeByte(NO_TIMESTAMP);
+			} else {
+				out.writeByte(TIMESTAMP);
+				out.writeTimestamp(recipe.getTimestamp());
+			}
+		}
+		out.flush();
+		DataOutputStream trailer = new DataOutputStream(stream);
+		trailer.writeInt((int) checked.getChecksum().getValue());
+		trailer.flush();
+	}
+
+	/**
+	 * reads a checkpoint and checks its CRC32. Nothing
+	 * after the checkpoint is read from stream.
+	 * @param stream
+	 * @return the checkpoint
+	 * @throws IOException if it is not a checkpoint or it is corrupted
+	 */
+	public static Checkpoint read(InputStream stream) throws IOException{
+		CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+		BinaryMessageCodec.Input in = new BinaryMessageCodec.Input(checked);
+		if (in.readVarInt() != MAGIC) {
+			throw new StreamCorruptedException("Not a checkpoint");
+		}
+		int format = in.readVarInt();
+		if (format != FORMAT) {
+			throw new StreamCorruptedException("Unknown checkpoint format: " + format);
+		}
+		long walSegment = in.readVarLong();
+		TimestampVector summary = in.readTimestampVector();
+		TimestampVector purged = in.readTimestampVector();
+		AckDelta ack = in.readAckDelta();
+		int size = in.readLength();
+		List<Timestamp> tombstones = new ArrayList<Timestamp>(Math.min(size, 1024));
+		for (int i = 0; i < size; i++) {
+			tombstones.add(in.readTimestamp());
+		}
+		size = in.readLength();
+		List<Recipe> recipes = new ArrayList<Recipe>(Math.min(size, 1024));
+		for (int i = 0; i < size; i++) {
+			String title = in.readString();
+			String recipe = in.readString();
+			String author = in.readInternedString();
+			Timestamp timestamp = in.readByte() == NO_TIMESTAMP ? null : in.readTimestamp();
+			recipes.add(new Recipe(title, recipe, author, timestamp));
+		}
+		if ((int) checked.getChecksum().getValue() != new DataInputStream(stream).readInt()) {
+			throw new StreamCorruptedException("Corrupted checkpoint");
+		}
+		return new Checkpoint(-1, walSegment, summary, purged, ack, tombstones, recipes);
+	}
+}
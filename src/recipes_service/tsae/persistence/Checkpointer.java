@@ -0,0 +1,127 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.persistence;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.library.api.LSimLogger;
+import recipes_service.ServerData;
+
+/**
+ * Periodically writes a Checkpoint of the state of a server, so that a
+ * restarted server only replays the operations appended to the
+ * WriteAheadLog since then. The copy of the state is taken holding the
+ * lock of serverData; it is encoded and written without it. Nothing is
+ * written if the state has not changed since the last checkpoint.
+ */
+public class Checkpointer {
+	private final ServerData serverData;
+	private final WriteAheadLog wal;
+	private final long interval;
+	private final ScheduledExecutorService timer;
+
+	// version of the state included in the last checkpoint
+	private long lastVersion = -1;
+
+	/**
+	 * @param serverData
+	 * @param wal
+	 * @param interval (milliseconds)
+	 */
+	public Checkpointer(ServerData serverData, WriteAheadLog wal, long interval){
+		this.serverData = serverData;
+		this.wal = wal;
+		this.interval = interval;
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "TSAECheckpointer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public void start(){
+		timer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkpoint();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * writes a checkpoint as soon as possible, without waiting for it
+	 * (e.g. after installing a snapshot, that is not in the write-ahead log)
+	 */
+	public void requestCheckpoint(){
+		try {
+			timer.execute(new Runnable() {
+				@Override
+				public void run() {
+					checkpoint();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// shut down: the last checkpoint is written by shutdown
+		}
+	}
+
+	/**
+	 * writes a checkpoint (if the state has changed since the last one)
+	 */
+	public synchronized void checkpoint(){
+		Checkpoint checkpoint = serverData.captureCheckpoint(lastVersion);
+		if (checkpoint == null) {
+			return;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			wal.writeCheckpoint(checkpoint);
+			lastVersion = checkpoint.getVersion();
+			LSimLogger.log(Level.DEBUG, "[Checkpointer] checkpoint of " + checkpoint.getRecipes().size() + " recipes written in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			LSimLogger.log(Level.ERROR, "[Checkpointer] unable to write a checkpoint: " + e);
+		}
+	}
+
+	/**
+	 * stops the periodic checkpoints and writes a last one
+	 */
+	public void shutdown(){
+		timer.shutdown();
+		try {
+			timer.awaitTermination(interval, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		checkpoint();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import communication.WireInput;
+import communication.WireOutput;
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.Recipe;
+import recipes_service.data.RemoveOperation;
+import recipes_service.tsae.data_structures.Timestamp;
+
+/**
+ * Encoding of the operations stored in the segments of the WriteAheadLog.
+ * Each record is self-contained (no interned strings), so that it can be
+ * decoded without reading the previous ones.
+ */
+class OperationRecords {
+
+	// operation types
+	private static final int ADD = 0;
+	private static final int REMOVE = 1;
+
+	// recipe timestamps
+	private static final int NO_TIMESTAMP = 0;
+	private static final int SAME_TIMESTAMP = 1;
+	private static final int OTHER_TIMESTAMP = 2;
+
+	static byte[] encode(Operation op) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WireOutput out = new WireOutput(bytes);
+		Timestamp ts = op.getTimestamp();
+		switch (op.getType()) {
+		case ADD:
+			Recipe recipe = ((AddOperation) op).getRecipe();
+			out.writeByte(ADD);
+			writeTimestamp(out, ts);
+			out.writeString(recipe.getTitle());
+			out.writeString(recipe.getRecipe());
+			out.writeString(recipe.getAuthor());
+			writeRecipeTimestamp(out, recipe.getTimestamp(), ts);
+			break;
+		case REMOVE:
+			RemoveOperation remove = (RemoveOperation) op;
+			out.writeByte(REMOVE);
+			writeTimestamp(out, ts);
+			out.writeString(remove.getRecipeTitle());
+			writeRecipeTimestamp(out, remove.getRecipeTimestamp(), ts);
+			break;
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static Operation decode(byte[] record) throws IOException{
+		WireInput in = new WireInput(new ByteArrayInputStream(record));
+		int type = in.readByte();
+		Timestamp ts = readTimestamp(in);
+		switch (type) {
+		case ADD:
+			String title = in.readString();
+			String recipe = in.readString();
+			String author = in.readString();
+			return new AddOperation(new Recipe(title, recipe, author, readRecipeTimestamp(in, ts)), ts);
+		case REMOVE:
+			title = in.readString();
+			return new RemoveOperation(title, readRecipeTimestamp(in, ts), ts);
+		default:
+			throw new StreamCorruptedException("Unknown operation type: " + type);
+		}
+	}
+
+	private static void writeTimestamp(WireOutput out, Timestamp ts) throws IOException{
+		out.writeString(ts.getHostid());
+		out.writeSignedVarLong(ts.getSeqnumber());
+	}
+
+	private static Timestamp readTimestamp(WireInput in) throws IOException{
+		return new Timestamp(in.readString(), in.readSignedVarLong());
+	}
+
+	private static void writeRecipeTimestamp(WireOutput out, Timestamp recipeTs, Timestamp opTs) throws IOException{
+		if (recipeTs == null) {
+			out.writeByte(NO_TIMESTAMP);
+		} else if (recipeTs.equals(opTs)) {
+			out.writeByte(SAME_TIMESTAMP);
+		} else {
+			out.writeByte(OTHER_TIMESTAMP);
+			writeTimestamp(out, recipeTs);
+		}
+	}
+
+	private static Timestamp readRecipeTimestamp(WireInput in, Timestamp opTs) throws IOException{
+		int kind = in.readByte();
+		switch (kind) {
+		case NO_TIMESTAMP:
+			return null;
+		case SAME_TIMESTAMP:
+			return opTs;
+		case OTHER_TIMESTAMP:
+			return readTimestamp(in);
+		default:
+			throw new StreamCorruptedException("Unknown recipe timestamp: " + kind);
+		}
+	}
+}
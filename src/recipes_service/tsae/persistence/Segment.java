@@ -0,0 +1,205 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import recipes_service.data.Operation;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * A file of the WriteAheadLog, mapped in memory. Records are appended one
+ * after the other: length of the payload (int), CRC32 of the payload (int)
+ * and payload (see OperationRecords). The file is created with its final
+ * size and filled with zeros, so a length of 0 marks the end of the records.
+ */
+class Segment {
+	static final int HEADER = 8;
+
+	private final File file;
+	private final long number;
+	// null once the segment has been closed
+	private MappedByteBuffer buffer;
+
+	// last sequence number of each host among the operations of the segment
+	private final Map<String, Long> lastSeqnumbers = new HashMap<String, Long>();
+
+	// appended records that have not been forced yet
+	private boolean dirty = false;
+
+	// the records end with an invalid one (the rest of the segment is ignored)
+	private boolean corrupted = false;
+
+	private Segment(File file, long number, MappedByteBuffer buffer){
+		this.file = file;
+		this.number = number;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * creates an empty segment of size bytes
+	 */
+	static Segment create(File file, long number, int size) throws IOException{
+		return new Segment(file, number, map(file, size));
+	}
+
+	/**
+	 * opens an existing segment and adds its operations to operations. The
+	 * segment is left ready to append after its last valid record.
+	 */
+	static Segment open(File file, long number, List<Operation> operations) throws IOException{
+		Segment segment = new Segment(file, number, map(file, file.length()));
+		segment.scan(operations);
+		return segment;
+	}
+
+	private static MappedByteBuffer map(File file, long size) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			// the mapping remains valid once the channel is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void scan(List<Operation> operations) throws IOException{
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= HEADER) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length == 0) {
+				buffer.position(start);
+				return;
+			}
+			if (length < 0 || length > buffer.remaining()) {
+				invalid(start);
+				return;
+			}
+			byte[] payload = new byte[length];
+			buffer.get(payload);
+			crc.reset();
+			crc.update(payload, 0, length);
+			if ((int) crc.getValue() != checksum) {
+				invalid(start);
+				return;
+			}
+			Operation op = OperationRecords.decode(payload);
+			operations.add(op);
+			added(op.getTimestamp());
+		}
+	}
+
+	/**
+	 * the record at position is torn (or garbage): it is dropped with the
+	 * rest of the segment, so that the records appended from now on cannot
+	 * be followed by stale ones
+	 */
+	private void invalid(int position){
+		corrupted = true;
+		buffer.position(position);
+		while (buffer.hasRemaining()) {
+			buffer.put((byte) 0);
+		}
+		buffer.position(position);
+		dirty = true;
+	}
+
+	/**
+	 * @return false if the record does not fit in the segment
+	 */
+	boolean append(byte[] payload, Timestamp timestamp){
+		if (buffer.remaining() < HEADER + payload.length) {
+			return false;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		int start = buffer.position();
+		// the length goes last: a record is not visible until it is complete
+		buffer.position(start + 4);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(payload);
+		buffer.putInt(start, payload.length);
+		added(timestamp);
+		dirty = true;
+		return true;
+	}
+
+	private void added(Timestamp timestamp){
+		Long last = lastSeqnumbers.get(timestamp.getHostid());
+		if (last == null || last < timestamp.getSeqnumber()) {
+			lastSeqnumbers.put(timestamp.getHostid(), timestamp.getSeqnumber());
+		}
+	}
+
+	void force(){
+		if (dirty) {
+			buffer.force();
+			dirty = false;
+		}
+	}
+
+	/**
+	 * @return true if every operation of the segment is in minAck (it has been received by everybody)
+	 */
+	boolean coveredBy(TimestampVector minAck){
+		for (Map.Entry<String, Long> entry : lastSeqnumbers.entrySet()) {
+			if (entry.getValue() > minAck.getLastSeqnumber(entry.getKey())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	boolean isCorrupted(){
+		return corrupted;
+	}
+
+	/**
+	 * forces the segment and drops its mapping (the file is unmapped once
+	 * the buffer is garbage collected). The segment cannot be used afterwards.
+	 */
+	void close(){
+		if (buffer != null) {
+			force();
+			buffer = null;
+		}
+	}
+
+	long getNumber(){
+		return number;
+	}
+
+	File getFile(){
+		return file;
+	}
+}
@@ -0,0 +1,323 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.library.api.LSimLogger;
+import recipes_service.data.Operation;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Append-only log of the operations of a server, kept on disk in a
+ * directory of memory-mapped segments (see Segment), so that a restarted
+ * server recovers its operations instead of pulling them back from its
+ * partners.
+ *
+ * On startup the server reads the last Checkpoint (if any) and replays
+ * onto it the operations of the segments (see recover). Segments whose
+ * operations have been received by every participant are deleted once a
+ * checkpoint includes them (see purge).
+ */
+public class WriteAheadLog {
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".wal";
+	private static final String CHECKPOINT = "checkpoint";
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final File directory;
+	private final SyncPolicy syncPolicy;
+	private final long syncInterval;
+	private final int segmentSize;
+
+	// oldest first; the last one is the one operations are appended to
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	private ScheduledExecutorService syncer = null;
+
+	// segments before this one are included in the last checkpoint
+	private long checkpointSegment = -1;
+	// summary of the last checkpoint (null if there is none)
+	private TimestampVector checkpointSummary = null;
+
+	/**
+	 * @param directory
+	 * @param syncPolicy
+	 * @param syncInterval (milliseconds) period of the forces (with SyncPolicy.INTERVAL)
+	 * @param segmentSize (bytes)
+	 */
+	public WriteAheadLog(File directory, SyncPolicy syncPolicy, long syncInterval, int segmentSize){
+		this.directory = directory;
+		this.syncPolicy = syncPolicy;
+		this.syncInterval = syncInterval;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Opens the segments of the directory (creating it if needed).
+	 * Replaying stops at the first invalid record (e.g. torn by a crash):
+	 * the segments after it are deleted, since their operations would
+	 * leave a gap in the log.
+	 * @return operations of the segments, in the order they were appended
+	 * @throws IOException
+	 */
+	public synchronized List<Operation> recover() throws IOException{
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create " + directory);
+		}
+		List<Operation> operations = new ArrayList<Operation>();
+		boolean corrupted = false;
+		for (File file : segmentFiles()) {
+			if (corrupted) {
+				LSimLogger.log(Level.WARN, "[WriteAheadLog] dropping " + file + ": it follows an invalid record");
+				delete(file);
+				continue;
+			}
+			Segment segment = Segment.open(file, segmentNumber(file), operations);
+			segments.add(segment);
+			if (segment.isCorrupted()) {
+				LSimLogger.log(Level.WARN, "[WriteAheadLog] " + file + " ends with an invalid record");
+				corrupted = true;
+			}
+		}
+		if (segments.isEmpty()) {
+			roll();
+		}
+		if (syncPolicy == SyncPolicy.INTERVAL) {
+			syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TSAEWalSync");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			syncer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					force();
+				}
+			}, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+		}
+		return operations;
+	}
+
+	/**
+	 * appends op. It is not forced to disk until commit (or the next
+	 * periodic force, depending on the SyncPolicy)
+	 * @param op
+	 * @throws IOException
+	 */
+	public synchronized void append(Operation op) throws IOException{
+		if (segments.isEmpty()) {
+			throw new IOException("Write-ahead log closed: " + directory);
+		}
+		byte[] payload = OperationRecords.encode(op);
+		if (!active().append(payload, op.getTimestamp())) {
+			active().force();
+			roll(Math.max(segmentSize, Segment.HEADER + payload.length));
+			active().append(payload, op.getTimestamp());
+		}
+	}
+
+	/**
+	 * ends a group of appends: with SyncPolicy.ALWAYS they are forced to disk
+	 */
+	public synchronized void commit(){
+		if (syncPolicy == SyncPolicy.ALWAYS && !segments.isEmpty()) {
+			active().force();
+		}
+	}
+
+	public synchronized void force(){
+		if (!segments.isEmpty()) {
+			active().force();
+		}
+	}
+
+	/**
+	 * deletes the segments (other than the last one) whose operations are
+	 * all in minAck and in the last checkpoint written
+	 * @param minAck operations received by every participant
+	 */
+	public synchronized void purge(TimestampVector minAck){
+		for (Iterator<Segment> it = segments.iterator(); it.hasNext(); ) {
+			Segment segment = it.next();
+			if (segment != active() && segment.getNumber() < checkpointSegment && segment.coveredBy(minAck)) {
+				delete(segment.getFile());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return number of the segment that operations are appended to (the
+	 * operations of the previous ones are in the current state); -1 once
+	 * the log has been closed
+	 */
+	public synchronized long getActiveSegment(){
+		return segments.isEmpty() ? -1 : active().getNumber();
+	}
+
+	/**
+	 * @return the last checkpoint written (null if there is none)
+	 * @throws IOException if it is corrupted
+	 */
+	public synchronized Checkpoint readCheckpoint() throws IOException{
+		File file = new File(directory, CHECKPOINT);
+		if (!file.exists()) {
+			return null;
+		}
+		InputStream stream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		try {
+			Checkpoint checkpoint = Checkpoint.read(stream);
+			checkpointSegment = checkpoint.getWalSegment();
+			checkpointSummary = checkpoint.getSummary();
+			return checkpoint;
+		} catch (StreamCorruptedException e) {
+			throw new StreamCorruptedException(e.getMessage() + ": " + file);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * replaces the checkpoint. The new one is written aside (followed by
+	 * its CRC32) and renamed once it is on disk, so that a crash leaves
+	 * either the old or the new one. Appends can go on meanwhile; only one
+	 * checkpoint can be written at a time (see Checkpointer).
+	 * @param checkpoint
+	 * @throws IOException
+	 */
+	public void writeCheckpoint(Checkpoint checkpoint) throws IOException{
+		// the operations that the checkpoint includes must be on disk before it is
+		force();
+		File tmp = new File(directory, CHECKPOINT + ".tmp");
+		FileOutputStream file = new FileOutputStream(tmp);
+		try {
+			OutputStream stream = new BufferedOutputStream(file, BUFFER_SIZE);
+			checkpoint.write(stream);
+			stream.flush();
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+		Files.move(tmp.toPath(), new File(directory, CHECKPOINT).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		synchronized (this) {
+			checkpointSegment = checkpoint.getWalSegment();
+			checkpointSummary = checkpoint.getSummary();
+		}
+	}
+
+	/**
+	 * @return the summary of the last checkpoint (null if there is none)
+	 */
+	public synchronized TimestampVector getCheckpointSummary(){
+		return checkpointSummary;
+	}
+
+	/**
+	 * opens the last checkpoint to read it (e.g. to send it to a partner).
+	 * Replacing the checkpoint afterwards does not affect the channel.
+	 * @return the channel (null if there is no checkpoint)
+	 * @throws IOException
+	 */
+	public synchronized FileChannel openCheckpoint() throws IOException{
+		if (checkpointSummary == null) {
+			return null;
+		}
+		return new FileInputStream(new File(directory, CHECKPOINT)).getChannel();
+	}
+
+	/**
+	 * stops the periodic forces, forces the last segment and releases all
+	 * the segments (appends fail from now on)
+	 */
+	public synchronized void close(){
+		if (syncer != null) {
+			syncer.shutdown();
+			syncer = null;
+		}
+		force();
+		for (Segment segment : segments) {
+			segment.close();
+		}
+		segments.clear();
+	}
+
+	private Segment active(){
+		return segments.get(segments.size() - 1);
+	}
+
+	private void roll() throws IOException{
+		roll(segmentSize);
+	}
+
+	private void roll(int size) throws IOException{
+		long number = segments.isEmpty() ? 0 : active().getNumber() + 1;
+		segments.add(Segment.create(new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX)), number, size));
+	}
+
+	private File[] segmentFiles(){
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		// zero-padded numbers: the order of the names is the order of the segments
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static long segmentNumber(File file){
+		String name = file.getName();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private static void delete(File file){
+		if (!file.delete()) {
+			LSimLogger.log(Level.WARN, "[WriteAheadLog] unable to delete " + file);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import recipes_service.tsae.data_structures.AckDelta;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+
+/**
+ * For each partner, a lower bound of the ack that the partner has (its
+ * baseline). Used to send to a partner only the rows of the local ack that
+ * may be newer than the partner's ack.
+ *
+ * A baseline holds information that the partner is known to have: the
+ * rows of the acks (or ack deltas) received from it, which replace the
+ * ones of the baseline (the ack of a partner may go backwards, e.g. after
+ * a restart or a snapshot), and the ack sent to it once the partner has
+ * confirmed the end of the session. The baseline of a partner is dropped
+ * when a session with it fails, as it may not have merged what it was sent.
+ */
+public class AckBaselines {
+	private final ConcurrentHashMap<String, TimestampMatrix> baselines = new ConcurrentHashMap<String, TimestampMatrix>();
+
+	// false: the full ack is always sent
+	private volatile boolean enabled = false;
+
+	public void setEnabled(boolean enabled){
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param partner
+	 * @param localAck
+	 * @return the rows of localAck to send to partner (all of them if there
+	 * is no baseline for partner)
+	 */
+	public AckDelta deltaFor(String partner, TimestampMatrix localAck){
+		TimestampMatrix baseline = (enabled && partner != null) ? baselines.get(partner) : null;
+		return localAck.delta(baseline);
+	}
+
+	/**
+	 * records the ack (delta) received from partner: its rows replace the
+	 * ones of the baseline (a full ack replaces the whole baseline)
+	 * @param partner
+	 * @param ack
+	 */
+	public void received(String partner, AckDelta ack){
+		if (partner == null) {
+			return;
+		}
+		if (ack.isFull()) {
+			TimestampMatrix baseline = new TimestampMatrix(ack.getHostIndex().getIds());
+			baseline.replaceRows(ack);
+			baselines.put(partner, baseline);
+		} else {
+			baseline(partner, ack.getHostIndex().getIds()).replaceRows(ack);
+		}
+	}
+
+	/**
+	 * records that partner has merged sentAck into its ack
+	 * @param partner
+	 * @param sentAck
+	 */
+	public void acknowledged(String partner, TimestampMatrix sentAck){
+		if (partner == null) {
+			return;
+		}
+		TimestampMatrix baseline = baselines.get(partner);
+		if (baseline == null) {
+			baselines.putIfAbsent(partner, sentAck.clone());
+		} else {
+			baseline.updateMax(sentAck);
+		}
+	}
+
+	/**
+	 * records that the ack of partner is equal to ack
+	 * @param partner
+	 * @param ack
+	 */
+	public void inSync(String partner, TimestampMatrix ack){
+		if (partner == null) {
+			return;
+		}
+		baselines.put(partner, ack.clone());
+	}
+
+	/**
+	 * drops the baseline of partner (the full ack will be sent to it next time)
+	 * @param partner
+	 */
+	public void forget(String partner){
+		if (partner == null) {
+			return;
+		}
+		baselines.remove(partner);
+	}
+
+	private TimestampMatrix baseline(String partner, List<String> participants){
+		TimestampMatrix baseline = baselines.get(partner);
+		if (baseline == null) {
+			TimestampMatrix created = new TimestampMatrix(participants);
+			baseline = baselines.putIfAbsent(partner, created);
+			if (baseline == null) {
+				baseline = created;
+			}
+		}
+		return baseline;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import recipes_service.ServerData;
+
+/**
+ * Runs the rounds of TSAE sessions with a period that adapts to the
+ * divergence observed by the server: after a round in which operations
+ * have been exchanged (in any session, as originator or as partner) or
+ * the summary has changed, the period is halved (down to minPeriod);
+ * after a round without changes it is doubled (up to maxPeriod).
+ *
+ * Each round schedules the next one once it has finished.
+ */
+public class AdaptiveSessionTimer implements Runnable {
+
+	private final ServerData serverData;
+	private final Runnable round;
+	private final ScheduledExecutorService timer;
+	// milliseconds
+	private final long minPeriod;
+	private final long maxPeriod;
+	private volatile long period;
+
+	// state observed at the end of the previous round
+	private long operations = -1;
+	private long summaryDigest;
+
+	/**
+	 * @param serverData
+	 * @param round a round of TSAE sessions
+	 * @param timer
+	 * @param period (milliseconds) initial period
+	 * @param minPeriod (milliseconds)
+	 * @param maxPeriod (milliseconds)
+	 */
+	public AdaptiveSessionTimer(ServerData serverData, Runnable round, ScheduledExecutorService timer, long period, long minPeriod, long maxPeriod) {
+		this.serverData = serverData;
+		this.round = round;
+		this.timer = timer;
+		this.minPeriod = minPeriod;
+		this.maxPeriod = maxPeriod;
+		this.period = Math.min(Math.max(period, minPeriod), maxPeriod);
+	}
+
+	/**
+	 * schedules the first round
+	 * @param delay (milliseconds)
+	 */
+	public void start(long delay) {
+		timer.schedule(this, delay, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void run() {
+		try {
+			round.run();
+		} finally {
+			adapt();
+			try {
+				timer.schedule(this, period, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// the timer has been stopped
+			}
+		}
+	}
+
+	/**
+	 * @return current period (milliseconds)
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	private void adapt() {
+		SessionStats stats = serverData.getSessionStats();
+		long currentOperations = stats.getOperationsSent() + stats.getOperationsReceived();
+		long currentDigest = serverData.getTSAESnapshot().getSummary().digest();
+		boolean diverging = operations < 0 || currentOperations != operations || currentDigest != summaryDigest;
+		operations = currentOperations;
+		summaryDigest = currentDigest;
+		if (diverging) {
+			period = Math.max(period / 2, minPeriod);
+		} else {
+			period = Math.min(period * 2, maxPeriod);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import recipes_service.communication.Host;
+import recipes_service.tsae.data_structures.TSAESnapshot;
+
+/**
+ * Leaves aside, for some time, the partners whose last sessions failed
+ * (e.g. because they are disconnected) and lets another strategy choose
+ * among the rest. The time a partner is left aside doubles with each
+ * consecutive failure (up to a maximum) and it is reset by a completed
+ * session. If there are not enough partners, left aside ones are used.
+ */
+public class BackoffPartnerSelection implements PartnerSelection {
+
+	private static class Backoff {
+		final int failures;
+		final long until;
+
+		Backoff(int failures, long until) {
+			this.failures = failures;
+			this.until = until;
+		}
+	}
+
+	private final PartnerSelection selection;
+	// milliseconds
+	private final long initialBackoff;
+	private final long maxBackoff;
+	private final ConcurrentHashMap<Host, Backoff> backoffs = new ConcurrentHashMap<Host, Backoff>();
+
+	/**
+	 * @param selection strategy that chooses among the partners that are not left aside
+	 * @param initialBackoff (milliseconds) time a partner is left aside after a failure
+	 * @param maxBackoff (milliseconds)
+	 */
+	public BackoffPartnerSelection(PartnerSelection selection, long initialBackoff, long maxBackoff) {
+		this.selection = selection;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	@Override
+	public List<Host> select(List<Host> partners, int num, TSAESnapshot snapshot) {
+		long now = System.currentTimeMillis();
+		List<Host> leftAside = new ArrayList<Host>();
+		for (Iterator<Host> it = partners.iterator(); it.hasNext();) {
+			Host partner = it.next();
+			Backoff backoff = backoffs.get(partner);
+			if (backoff != null && backoff.until > now) {
+				leftAside.add(partner);
+				it.remove();
+			}
+		}
+		List<Host> selected = selection.select(partners, num, snapshot);
+		if (selected.size() < num && !leftAside.isEmpty()) {
+			selected.addAll(selection.select(leftAside, num - selected.size(), snapshot));
+		}
+		return selected;
+	}
+
+	@Override
+	public void sessionEnded(Host partner, boolean completed) {
+		if (completed) {
+			backoffs.remove(partner);
+		} else {
+			Backoff previous = backoffs.get(partner);
+			int failures = previous == null ? 1 : previous.failures + 1;
+			long time = initialBackoff << Math.min(failures - 1, 20);
+			backoffs.put(partner, new Backoff(failures, System.currentTimeMillis() + Math.min(time, maxBackoff)));
+		}
+		selection.sessionEnded(partner, completed);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+
+import communication.FramedInputStream;
+import communication.FramedOutputStream;
+import communication.ObjectOutputStream_DS;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.library.api.LSimLogger;
+import recipes_service.ServerData;
+import recipes_service.communication.MessageBootstrap;
+import recipes_service.tsae.data_structures.TimestampVector;
+import recipes_service.tsae.persistence.Checkpoint;
+
+/**
+ * Sends and receives the snapshot of the state (a Checkpoint) that
+ * replaces the operations of a TSAE session when the partner lags too far
+ * behind: the log cannot serve it (the operations it misses have been
+ * purged, e.g. a brand-new replica) or it misses more operations than
+ * the bootstrap threshold of the server.
+ *
+ * The snapshot follows a MessageBootstrap as a raw frame. The last
+ * checkpoint of the write-ahead log is sent straight from its file (see
+ * FramedOutputStream.transferFrom) when it includes everything the partner
+ * has; otherwise the state is copied and encoded in memory. The receiver
+ * installs it at once (see ServerData.installSnapshot) and the next
+ * sessions bring it the operations that came after it.
+ */
+class Bootstrap {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * sends a snapshot to the owner of partnerSummary
+	 */
+	static void send(ObjectOutputStream_DS out, FramedOutputStream frames, Socket socket, int sessionNumber,
+			ServerData serverData, TimestampVector partnerSummary) throws IOException{
+		long start = System.currentTimeMillis();
+		long length;
+		String source;
+		FileChannel checkpoint = serverData.openBootstrapCheckpoint(partnerSummary);
+		if (checkpoint != null) {
+			try {
+				length = checkpoint.size();
+				announce(out, length, sessionNumber);
+				frames.transferFrom(checkpoint, 0, length, socket.getChannel());
+				source = "last checkpoint";
+			} finally {
+				checkpoint.close();
+			}
+		} else {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+			serverData.captureSnapshot().write(bytes);
+			length = bytes.size();
+			announce(out, length, sessionNumber);
+			frames.writeRaw(bytes.toByteArray(), 0, bytes.size());
+			source = "current state";
+		}
+		serverData.getSessionStats().snapshotSent();
+		LSimLogger.log(Level.DEBUG, "[Bootstrap] [session: "+sessionNumber+"] snapshot of " + length + " bytes ("
+				+ source + ") sent in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private static void announce(ObjectOutputStream_DS out, long length, int sessionNumber) throws IOException{
+		MessageBootstrap msg = new MessageBootstrap(length);
+		msg.setSessionNumber(sessionNumber);
+		out.writeObject(msg);
+	}
+
+	/**
+	 * reads the snapshot announced by msg and installs it. If it is discarded,
+	 * the next sessions with partner do not accept snapshots from it (see
+	 * ServerData.acceptsBootstrapFrom)
+	 * @param partner host id of the sender
+	 * @return true if it has been installed (see ServerData.installSnapshot)
+	 */
+	static boolean receive(MessageBootstrap msg, String partner, FramedInputStream frames, ServerData serverData) throws IOException{
+		long start = System.currentTimeMillis();
+		InputStream raw = new BufferedInputStream(frames.nextRawFrame(), BUFFER_SIZE);
+		Checkpoint snapshot = Checkpoint.read(raw);
+		if (raw.read() >= 0) {
+			throw new StreamCorruptedException("Unexpected bytes after the snapshot");
+		}
+		boolean installed = serverData.installSnapshot(snapshot);
+		if (installed) {
+			serverData.getSessionStats().snapshotInstalled();
+		}
+		serverData.setBootstrapDeclined(partner, !installed);
+		LSimLogger.log(Level.DEBUG, "[Bootstrap] [session: "+msg.getSessionNumber()+"] snapshot of " + msg.getLength() + " bytes ("
+				+ snapshot.getRecipes().size() + " recipes) " + (installed ? "installed" : "discarded") + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return installed;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import communication.FramedOutputStream;
+import communication.ObjectOutputStream_DS;
+import recipes_service.ServerData;
+import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.Host;
+import recipes_service.communication.MessagePush;
+import recipes_service.communication.PeerConnection;
+import recipes_service.communication.PeerConnectionManager;
+import recipes_service.data.Operation;
+
+/**
+ * Pushes the operations issued by this server to a few partners as soon
+ * as they are created (rumor mongering), instead of running TSAE sessions
+ * for them.
+ *
+ * New operations are queued without blocking the writer; a background
+ * thread sends them, in small batches, to fanout partners in one-way
+ * MessagePush messages. Operations that do not fit in the queue, or that
+ * cannot be delivered, are left to the anti-entropy sessions.
+ */
+public class EagerPush implements Runnable {
+
+	// maximum number of queued operations and of operations in a message
+	private static final int MAX_QUEUED = 1024;
+	private static final int MAX_BATCH = 32;
+
+	private final ServerData serverData;
+	private final int fanout;
+	private final BlockingQueue<Operation> queue = new ArrayBlockingQueue<Operation>(MAX_QUEUED);
+	private final Thread sender;
+
+	/**
+	 * @param serverData
+	 * @param fanout number of partners each operation is pushed to
+	 */
+	public EagerPush(ServerData serverData, int fanout) {
+		this.serverData = serverData;
+		this.fanout = fanout;
+		this.sender = new Thread(this, "TSAEEagerPush");
+		this.sender.setDaemon(true);
+	}
+
+	public void start() {
+		sender.start();
+	}
+
+	public void shutdown() {
+		sender.interrupt();
+	}
+
+	/**
+	 * queues a new local operation to be pushed (it does not block)
+	 * @param op
+	 * @return false if the queue is full (the operation will be propagated
+	 * by anti-entropy)
+	 */
+	public boolean offer(Operation op) {
+		return queue.offer(op);
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				List<Operation> batch = new ArrayList<Operation>();
+				batch.add(queue.take());
+				queue.drainTo(batch, MAX_BATCH - 1);
+				if (!SimulationData.getInstance().isConnected()) {
+					continue;
+				}
+				for (Host partner : serverData.selectPartners(fanout)) {
+					push(partner, batch);
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	private void push(Host partner, List<Operation> batch) {
+		PeerConnectionManager connections = serverData.getPeerConnections();
+		boolean sent = false;
+		try {
+			// pushes do not wait for a session using the connection to partner
+			PeerConnection connection = connections.acquire(partner, 0);
+			try {
+				ObjectOutputStream_DS out = new ObjectOutputStream_DS(new FramedOutputStream(connection.getSocket().getOutputStream()));
+				out.writeObject(new MessagePush(batch));
+				serverData.getSessionStats().operationsSent(batch.size());
+				sent = true;
+			} finally {
+				connections.release(partner, sent);
+			}
+		} catch (IOException e) {
+			// anti-entropy will propagate the operations
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import recipes_service.communication.Host;
+import recipes_service.tsae.data_structures.TSAESnapshot;
+
+/**
+ * Chooses first the partners that are furthest behind: the ones whose row
+ * of the ack is missing more of the operations in the local summary.
+ * Partners with the same lag are chosen at random.
+ */
+public class MostLaggingPartnerSelection implements PartnerSelection {
+
+	private final Random rnd = new Random();
+
+	@Override
+	public List<Host> select(List<Host> partners, int num, TSAESnapshot snapshot) {
+		synchronized (rnd) {
+			Collections.shuffle(partners, rnd);
+		}
+		final Map<Host, Long> lag = new HashMap<Host, Long>();
+		for (Host partner : partners) {
+			lag.put(partner, snapshot.getAck().missing(partner.getId(), snapshot.getSummary()));
+		}
+		// stable sort: the shuffle breaks ties
+		Collections.sort(partners, new Comparator<Host>() {
+			@Override
+			public int compare(Host h1, Host h2) {
+				return Long.compare(lag.get(h2), lag.get(h1));
+			}
+		});
+		return new ArrayList<Host>(partners.subList(0, Math.min(num, partners.size())));
+	}
+
+	@Override
+	public void sessionEnded(Host partner, boolean completed) {
+	}
+}
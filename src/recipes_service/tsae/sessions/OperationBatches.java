@@ -0,0 +1,179 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import communication.Compressors;
+import communication.FramedInputStream;
+import communication.FramedOutputStream;
+import communication.ObjectInputStream_DS;
+import communication.ObjectOutputStream_DS;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.library.api.LSimLogger;
+import recipes_service.ServerData;
+import recipes_service.communication.BinaryMessageCodec;
+import recipes_service.communication.Message;
+import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageEndTSAE;
+import recipes_service.communication.MessageOperation;
+import recipes_service.communication.MessageOperationBatch;
+import recipes_service.communication.MsgType;
+import recipes_service.data.Operation;
+
+/**
+ * Sends and receives the operations of a TSAE session. Operations are
+ * grouped in MessageOperationBatch messages (bounded by
+ * MessageOperationBatch.MAX_OPERATIONS and MessageOperationBatch.MAX_BYTES).
+ */
+class OperationBatches {
+
+	// threads that send the operations of duplex sessions
+	private static final ExecutorService writers = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "TSAESessionWriter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * sets the compression of the frames sent to peer: the local compressor,
+	 * if peer accepts it
+	 */
+	static void negotiateCompression(FramedOutputStream frames, MessageAErequest peer, ServerData serverData){
+		frames.setCompressor(Compressors.negotiate(serverData.getCompressor(), peer.getCompression()), serverData.getCompressionThreshold());
+	}
+
+	/**
+	 * logs the compression ratio and time of a session (if it has sent or received compressed frames)
+	 */
+	static void logCompression(String session, FramedOutputStream out, FramedInputStream in){
+		boolean sent = out != null && out.hasCompressed();
+		boolean received = in != null && in.hasDecompressed();
+		if (sent || received) {
+			LSimLogger.log(Level.DEBUG, session + " compression: sent " + (sent ? out.getStatistics() : "-")
+					+ "; received " + (received ? in.getStatistics() : "-"));
+		}
+	}
+
+	static void send(ObjectOutputStream_DS out, List<Operation> operations, int sessionNumber, SessionStats stats) throws IOException{
+		stats.operationsSent(operations.size());
+		List<Operation> batch = new ArrayList<Operation>();
+		int bytes = 0;
+		for (Operation op : operations) {
+			int size = MessageOperationBatch.estimatedSize(op);
+			if (!batch.isEmpty() && (batch.size() == MessageOperationBatch.MAX_OPERATIONS || bytes + size > MessageOperationBatch.MAX_BYTES)) {
+				write(out, batch, sessionNumber);
+				batch = new ArrayList<Operation>();
+				bytes = 0;
+			}
+			batch.add(op);
+			bytes += size;
+		}
+		if (!batch.isEmpty()) {
+			write(out, batch, sessionNumber);
+		}
+	}
+
+	private static void write(ObjectOutputStream_DS out, List<Operation> batch, int sessionNumber) throws IOException{
+		MessageOperationBatch msg = new MessageOperationBatch(batch);
+		msg.setSessionNumber(sessionNumber);
+		out.writeObject(msg);
+	}
+
+	/**
+	 * sends operations followed by an "end of TSAE session" message from
+	 * another thread. Nothing else can be written into out until the
+	 * sending has finished (see await).
+	 */
+	static Future<Void> sendAsync(final ObjectOutputStream_DS out, final List<Operation> operations, final int sessionNumber, final SessionStats stats){
+		return writers.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				send(out, operations, sessionNumber, stats);
+				MessageEndTSAE endTSAEMsg = new MessageEndTSAE();
+				endTSAEMsg.setSessionNumber(sessionNumber);
+				out.writeObject(endTSAEMsg);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * waits until the sending started by sendAsync has finished
+	 * @param sending
+	 * @throws IOException if the sending failed
+	 */
+	static void await(Future<Void> sending) throws IOException{
+		try {
+			sending.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * applies the operations received from in (and folds them into progress).
+	 * With the binary codec, the operations already known are not decoded
+	 * (see SessionProgress.isKnown).
+	 * @param in
+	 * @param serverData
+	 * @param progress
+	 * @return the first received message that is not an operation
+	 */
+	static Message receive(ObjectInputStream_DS in, ServerData serverData, SessionProgress progress) throws IOException, ClassNotFoundException{
+		if (in.getCodecInput() instanceof BinaryMessageCodec.Input) {
+			((BinaryMessageCodec.Input) in.getCodecInput()).setOperationFilter(progress);
+		}
+		Message msg = (Message) in.readObject();
+		while (msg.type() == MsgType.OPERATION || msg.type() == MsgType.OPERATION_BATCH) {
+			if (msg.type() == MsgType.OPERATION_BATCH) {
+				List<Operation> operations = ((MessageOperationBatch) msg).getOperations();
+				serverData.performOperations(operations);
+				progress.applied(operations);
+				serverData.getSessionStats().operationsReceived(operations.size());
+			} else {
+				Operation operation = ((MessageOperation) msg).getOperation();
+				serverData.performOperation(operation);
+				progress.applied(operation);
+				serverData.getSessionStats().operationsReceived(1);
+			}
+			msg = (Message) in.readObject();
+		}
+		return msg;
+	}
+}
@@ -0,0 +1,51 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.List;
+
+import recipes_service.communication.Host;
+import recipes_service.tsae.data_structures.TSAESnapshot;
+
+/**
+ * Strategy that chooses the partners of each round of TSAE sessions.
+ *
+ * Implementations may be called from several threads at the same time
+ * (the TSAE timer, the activity simulation and the sessions themselves).
+ */
+public interface PartnerSelection {
+
+	/**
+	 * @param partners the other participants (the list can be modified by the strategy)
+	 * @param num
+	 * @param snapshot summary and ack of this server
+	 * @return at most num different partners
+	 */
+	List<Host> select(List<Host> partners, int num, TSAESnapshot snapshot);
+
+	/**
+	 * informs about the end of a session started with partner
+	 * @param partner
+	 * @param completed true if the session ended properly
+	 */
+	void sessionEnded(Host partner, boolean completed);
+}
@@ -0,0 +1,78 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import recipes_service.communication.Host;
+import recipes_service.tsae.data_structures.TSAESnapshot;
+
+/**
+ * Goes through the partners in a fixed (random) order, so that every
+ * partner is contacted once every few rounds. Each round skips a random
+ * number of partners (up to jitter) so that servers that start at the same
+ * time do not stay synchronized.
+ */
+public class RoundRobinPartnerSelection implements PartnerSelection {
+
+	private final Random rnd = new Random();
+	private final int jitter;
+	// position of each partner in the order (its hash code plus a random salt of this server)
+	private final int salt = rnd.nextInt();
+	private int next;
+
+	/**
+	 * @param jitter maximum number of partners skipped in each round
+	 */
+	public RoundRobinPartnerSelection(int jitter) {
+		this.jitter = jitter;
+	}
+
+	@Override
+	public synchronized List<Host> select(List<Host> partners, int num, TSAESnapshot snapshot) {
+		Collections.sort(partners, new Comparator<Host>() {
+			@Override
+			public int compare(Host h1, Host h2) {
+				return Integer.compare(h1.hashCode() ^ salt, h2.hashCode() ^ salt);
+			}
+		});
+		List<Host> selected = new ArrayList<Host>();
+		int size = partners.size();
+		if (size == 0) {
+			return selected;
+		}
+		next += rnd.nextInt(jitter + 1);
+		for (int i = 0; i < Math.min(num, size); i++) {
+			selected.add(partners.get((next + i) % size));
+		}
+		next = (next + selected.size()) % size;
+		return selected;
+	}
+
+	@Override
+	public void sessionEnded(Host partner, boolean completed) {
+	}
+}
@@ -0,0 +1,87 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end deadline of a TSAE session: if the session has not finished
+ * when the deadline expires, its socket is closed, so that any read or
+ * write blocked on it fails and the session ends.
+ */
+class SessionDeadline implements Runnable {
+
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "TSAESessionDeadline");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Socket socket;
+	private final ScheduledFuture<?> expiration;
+	private volatile boolean expired;
+
+	private SessionDeadline(Socket socket, long timeout) {
+		this.socket = socket;
+		this.expiration = timer.schedule(this, timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param socket
+	 * @param timeout (milliseconds) 0 means no deadline
+	 * @return the deadline of a session that starts now on socket (null if timeout is 0)
+	 */
+	static SessionDeadline start(Socket socket, long timeout) {
+		return timeout > 0 ? new SessionDeadline(socket, timeout) : null;
+	}
+
+	@Override
+	public void run() {
+		expired = true;
+		try {
+			socket.close();
+		} catch (IOException ignored) {}
+	}
+
+	/**
+	 * to be called when the session ends
+	 */
+	void cancel() {
+		expiration.cancel(false);
+	}
+
+	/**
+	 * @return true if the session has been aborted because the deadline expired
+	 */
+	boolean hasExpired() {
+		return expired;
+	}
+}
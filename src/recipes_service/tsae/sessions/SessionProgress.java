@@ -0,0 +1,105 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.List;
+
+import recipes_service.ServerData;
+import recipes_service.communication.OperationFilter;
+import recipes_service.data.Operation;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Operations received (and applied) during a TSAE session. The watermark
+ * starts as the local summary at the beginning of the session and advances,
+ * for each host, as long as the received operations follow it without gaps:
+ * every operation up to the watermark is in the log. If the session is
+ * aborted the watermark is committed into the summary (see commit), so that
+ * the next session does not ask again for those operations.
+ *
+ * It is also the OperationFilter of the session: the received operations
+ * that are already in the log (e.g. received meanwhile by a concurrent
+ * session with another partner) are skipped without being decoded.
+ */
+class SessionProgress implements OperationFilter {
+	private final ServerData serverData;
+	private final TimestampVector watermark;
+	private boolean advanced = false;
+
+	/**
+	 * @param serverData
+	 * @param localSummary summary at the beginning of the session (it is not modified)
+	 */
+	SessionProgress(ServerData serverData, TimestampVector localSummary){
+		this.serverData = serverData;
+		this.watermark = localSummary.clone();
+	}
+
+	/**
+	 * an operation is known if the log already has it or a newer operation
+	 * of the same host (Log.add would reject it). The summary is not enough:
+	 * the operations applied by a session in progress are only in the log.
+	 * Operations up to it are in the log, so the watermark can move up to it.
+	 */
+	@Override
+	public boolean isKnown(Timestamp timestamp){
+		if (timestamp.getSeqnumber() > serverData.getLog().getLastSeqnumber(timestamp.getHostid())) {
+			return false;
+		}
+		if (timestamp.getSeqnumber() > watermark.getLastSeqnumber(timestamp.getHostid())) {
+			watermark.updateTimestamp(timestamp);
+			advanced = true;
+		}
+		serverData.getSessionStats().operationsSkipped(1);
+		return true;
+	}
+
+	/**
+	 * folds the operations that have just been applied into the watermark
+	 * @param operations (operations of each host in order)
+	 */
+	void applied(List<Operation> operations){
+		for (Operation operation : operations) {
+			applied(operation);
+		}
+	}
+
+	void applied(Operation operation){
+		Timestamp timestamp = operation.getTimestamp();
+		long last = watermark.getLastSeqnumber(timestamp.getHostid());
+		long next = last == Timestamp.NULL_TIMESTAMP_SEQ_NUMBER ? 0 : last + 1;
+		if (timestamp.getSeqnumber() == next) {
+			watermark.updateTimestamp(timestamp);
+			advanced = true;
+		}
+	}
+
+	/**
+	 * adds the watermark to the summary of serverData (of an aborted session)
+	 */
+	void commit(ServerData serverData){
+		if (advanced) {
+			serverData.commitSessionProgress(watermark);
+		}
+	}
+}
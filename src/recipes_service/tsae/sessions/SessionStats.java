@@ -0,0 +1,141 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the outcome of the TSAE sessions of a server (both the ones
+ * it starts and the ones it serves as partner).
+ */
+public class SessionStats {
+	private final AtomicLong completed = new AtomicLong();
+	// completed sessions that ended after the exchange of digests (both sides were in sync)
+	private final AtomicLong inSync = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	// a read or a connection did not complete within its timeout
+	private final AtomicLong timedOut = new AtomicLong();
+	// aborted because the session deadline expired
+	private final AtomicLong expired = new AtomicLong();
+	// operations sent to and received from partners
+	private final AtomicLong operationsSent = new AtomicLong();
+	private final AtomicLong operationsReceived = new AtomicLong();
+	// received operations that were already known (skipped without being decoded)
+	private final AtomicLong operationsSkipped = new AtomicLong();
+	// snapshots sent to partners and received from them and installed (see Bootstrap)
+	private final AtomicLong snapshotsSent = new AtomicLong();
+	private final AtomicLong snapshotsInstalled = new AtomicLong();
+
+	void completed(){
+		completed.incrementAndGet();
+	}
+
+	void inSync(){
+		inSync.incrementAndGet();
+	}
+
+	void operationsSent(int num){
+		operationsSent.addAndGet(num);
+	}
+
+	void operationsReceived(int num){
+		operationsReceived.addAndGet(num);
+	}
+
+	void operationsSkipped(int num){
+		operationsSkipped.addAndGet(num);
+	}
+
+	void snapshotSent(){
+		snapshotsSent.incrementAndGet();
+	}
+
+	void snapshotInstalled(){
+		snapshotsInstalled.incrementAndGet();
+	}
+
+	/**
+	 * records a session that has not ended properly
+	 * @param e exception that ended the session (null if the session ended
+	 * because of an unexpected message)
+	 * @param deadline deadline of the session (may be null)
+	 */
+	void failed(Exception e, SessionDeadline deadline){
+		if (deadline != null && deadline.hasExpired()) {
+			expired.incrementAndGet();
+		} else if (e instanceof SocketTimeoutException) {
+			timedOut.incrementAndGet();
+		} else {
+			failed.incrementAndGet();
+		}
+	}
+
+	public long getCompleted(){
+		return completed.get();
+	}
+
+	public long getInSync(){
+		return inSync.get();
+	}
+
+	public long getFailed(){
+		return failed.get();
+	}
+
+	public long getTimedOut(){
+		return timedOut.get();
+	}
+
+	public long getExpired(){
+		return expired.get();
+	}
+
+	public long getOperationsSent(){
+		return operationsSent.get();
+	}
+
+	public long getOperationsReceived(){
+		return operationsReceived.get();
+	}
+
+	public long getOperationsSkipped(){
+		return operationsSkipped.get();
+	}
+
+	public long getSnapshotsSent(){
+		return snapshotsSent.get();
+	}
+
+	public long getSnapshotsInstalled(){
+		return snapshotsInstalled.get();
+	}
+
+	@Override
+	public String toString(){
+		return "completed: " + getCompleted() + " (in sync: " + getInSync() + "), failed: " + getFailed()
+				+ ", timed out: " + getTimedOut() + ", deadline expired: " + getExpired()
+				+ "; operations sent: " + getOperationsSent() + ", received: " + getOperationsReceived()
+				+ ", skipped: " + getOperationsSkipped()
+				+ "; snapshots sent: " + getSnapshotsSent() + ", installed: " + getSnapshotsInstalled();
+	}
+}
@@ -21,24 +21,36 @@
 package recipes_service.tsae.sessions;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import recipes_service.ServerData;
 import recipes_service.activity_simulation.SimulationData;
 import recipes_service.communication.Host;
 import recipes_service.communication.Message;
+import recipes_service.communication.MessageAEdigest;
 import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageBootstrap;
 import recipes_service.communication.MessageEndTSAE;
-import recipes_service.communication.MessageOperation;
 import recipes_service.communication.MsgType;
-import recipes_service.data.Operation;
+import recipes_service.communication.PeerConnection;
+import recipes_service.communication.PeerConnectionManager;
 import recipes_service.data.OperationType;
+import recipes_service.tsae.data_structures.TSAESnapshot;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
+import communication.FramedInputStream;
+import communication.FramedOutputStream;
 import communication.ObjectInputStream_DS;
 import communication.ObjectOutputStream_DS;
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
@@ -49,14 +61,29 @@ import lsim.library.api.LSimLogger;
  * December 2012
  *
  */
-public class TSAESessionOriginatorSide extends TimerTask {
+public class TSAESessionOriginatorSide implements Runnable {
 	private static final AtomicInteger SESSION_NUMBER = new AtomicInteger(0);
 	
 	private final ServerData serverData;
 
+	// runs the sessions of each round (at most serverData.getMaxConcurrentSessions() at the same time)
+	private final ThreadPoolExecutor sessions;
+
 	public TSAESessionOriginatorSide(ServerData serverData){
 		super();
 		this.serverData=serverData;		
+		int maxSessions = serverData.getMaxConcurrentSessions();
+		sessions = new ThreadPoolExecutor(maxSessions, maxSessions, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "TSAESessionOriginatorSide");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		sessions.allowCoreThreadTimeOut(true);
 	}
 	
 	/**
@@ -68,7 +95,10 @@ public class TSAESessionOriginatorSide extends TimerTask {
 
 	/**
 	 * This method performs num TSAE sessions
-	 * with num random servers
+	 * with num servers (chosen by serverData's partner selection strategy). Sessions run concurrently; the method
+	 * returns when all of them have finished or when the round deadline
+	 * (serverData.getSessionRoundDeadline()) expires. Sessions that have not
+	 * started by then are dropped; the running ones go on until they end.
 	 * @param num
 	 */
 	public void sessionWithN(int num){
@@ -76,96 +106,293 @@ public class TSAESessionOriginatorSide extends TimerTask {
 			return;
 		}
 
-		List<Host> partnersTSAESession = serverData.getRandomPartners(num);
-    for (Host host: partnersTSAESession) {
-      sessionTSAE(host);
-    }
+		List<Host> partnersTSAESession = serverData.selectPartners(num);
+		final long deadline = System.currentTimeMillis() + serverData.getSessionRoundDeadline();
+		List<Future<?>> round = new ArrayList<Future<?>>();
+		for (final Host host: partnersTSAESession) {
+			round.add(sessions.submit(new Runnable() {
+				@Override
+				public void run() {
+					sessionTSAE(host, deadline);
+				}
+			}));
+		}
+		for (Future<?> session : round) {
+			try {
+				session.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				session.cancel(false);
+			} catch (ExecutionException e) {
+				LSimLogger.log(Level.ERROR, "[TSAESessionOriginatorSide] TSAE session failed: " + e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				session.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * stops the sessions that have not started yet (and interrupts the running ones)
+	 */
+	public void shutdown(){
+		sessions.shutdownNow();
 	}
 	
 	/**
 	 * This method perform a TSAE session
 	 * with the partner server n
 	 * @param n
+	 * @param roundDeadline time by which the round of the session ends: the
+	 * session fails if the connection to n is still in use by then
 	 */
-	private void sessionTSAE(Host n){
-		int current_session_number = SESSION_NUMBER.incrementAndGet();
+	private void sessionTSAE(Host n, long roundDeadline){
 		if (n == null) return;
+		// a reused connection that the partner has closed meanwhile fails before
+		// any reply: the session is run once more on a new connection
+		if (sessionTSAE(n, roundDeadline, true)) {
+			sessionTSAE(n, roundDeadline, false);
+		}
+	}
+
+	/**
+	 * @param n
+	 * @param roundDeadline
+	 * @param mayRetry
+	 * @return true if the session failed on a reused connection before receiving
+	 * anything from n (only if mayRetry). Nothing has been counted for it and
+	 * it has to be run again.
+	 */
+	private boolean sessionTSAE(Host n, long roundDeadline, boolean mayRetry){
+		int current_session_number = SESSION_NUMBER.incrementAndGet();
 		
 		LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] TSAE session");
 		
+		PeerConnectionManager connections = serverData.getPeerConnections();
+		PeerConnection connection = null;
+		// true if the session ended properly (the connection can be used for more sessions)
+		boolean completed = false;
+		SessionDeadline deadline = null;
+		IOException failure = null;
+		boolean retry = false;
+		FramedOutputStream framesOut = null;
+		FramedInputStream framesIn = null;
+		// operations received (and applied) so far
+		SessionProgress progress = null;
 		try {
-			Socket socket = new Socket(n.getAddress(), n.getPort());
-			ObjectInputStream_DS in = new ObjectInputStream_DS(socket.getInputStream());
-			ObjectOutputStream_DS out = new ObjectOutputStream_DS(socket.getOutputStream());
-
-			TimestampVector localSummary;
-			TimestampMatrix localAck;
-
-			// Get the local summary and local ack before sending to partner
-			synchronized (serverData) {
-				localSummary = serverData.getSummary().clone();
-				serverData.getAck().update(serverData.getId(), localSummary);
-				localAck = serverData.getAck().clone();
+			// wait for a session still using the connection to n, but not beyond
+			// the deadline of the round nor the time a session may last
+			long wait = roundDeadline - System.currentTimeMillis();
+			if (serverData.getSessionTimeout() > 0) {
+				wait = Math.min(wait, serverData.getSessionTimeout());
 			}
+			connection = connections.acquire(n, Math.max(wait, 0));
+			deadline = SessionDeadline.start(connection.getSocket(), serverData.getSessionTimeout());
+			// the output stream goes first: the partner waits (idle) for data from the originator.
+			// The input stream is opened once the first message has been sent (the partner opens
+			// its output stream once it has read it)
+			framesOut = new FramedOutputStream(connection.getSocket().getOutputStream());
+			framesIn = new FramedInputStream(connection.getInputStream());
+			ObjectOutputStream_DS out = new ObjectOutputStream_DS(framesOut);
+			ObjectInputStream_DS in = null;
 
-			// Send to partner: local's summary and ack
-			Message	msg = new MessageAErequest(localSummary, localAck);
-			msg.setSessionNumber(current_session_number);
-			out.writeObject(msg);
-			//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+msg);
+			// Get the local summary and local ack before sending to partner
+			TSAESnapshot snapshot = serverData.getTSAESnapshot();
+			TimestampVector localSummary = snapshot.getSummary();
+			TimestampMatrix localAck = snapshot.getAck();
+			AckBaselines ackBaselines = serverData.getAckBaselines();
+			progress = new SessionProgress(serverData, localSummary);
 
-			// receive operations from partner
-			msg = (Message) in.readObject();
-			//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
-			while (msg.type() == MsgType.OPERATION) {
-				MessageOperation operationMsg = (MessageOperation) msg;
-				synchronized (serverData) {
-					serverData.performOperation(operationMsg.getOperation());
+			if (serverData.isDigestHandshake()) {
+				// exchange digests of summary and ack: if both sides are in sync the session ends here
+				MessageAEdigest digest = new MessageAEdigest(serverData.getId(), snapshot);
+				digest.setSessionNumber(current_session_number);
+				out.writeObject(digest);
+				in = new ObjectInputStream_DS(framesIn);
+				Message msg = (Message) in.readObject();
+				if (msg.type() != MsgType.AE_DIGEST) {
+					return false;
+				}
+				if (digest.inSyncWith((MessageAEdigest) msg)) {
+					// partner's ack is equal to localAck
+					ackBaselines.inSync(n.getId(), localAck);
+					serverData.getSessionStats().inSync();
+					completed = true;
+					return false;
 				}
+			}
 
-				msg = (Message) in.readObject();
-				//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
+			// Send to partner: local's summary and ack (only the rows that the partner may not have)
+			MessageAErequest request = new MessageAErequest(serverData.getId(), localSummary, ackBaselines.deltaFor(n.getId(), localAck));
+			request.setDuplex(serverData.isDuplexSessions());
+			request.setCompression(serverData.getCompressionName());
+			request.setBootstrap(serverData.acceptsBootstrapFrom(n.getId()));
+			request.setSessionNumber(current_session_number);
+			out.writeObject(request);
+			if (in == null) {
+				in = new ObjectInputStream_DS(framesIn);
 			}
+			//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+request);
 
-			// receive partner's summary and ack
-			if (msg.type() == MsgType.AE_REQUEST){
-				MessageAErequest partner = (MessageAErequest) msg;
+			if (request.isDuplex()) {
+				completed = duplexSession(n, current_session_number, connection.getSocket(), in, out, framesIn, framesOut, localAck, progress);
+			} else {
+				// receive operations from partner
+				Message msg = OperationBatches.receive(in, serverData, progress);
+				//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
 
-				// send operations
-				for (Operation operation: serverData.getLog().listNewer(partner.getSummary())) {
-					MessageOperation operationMsg = new MessageOperation(operation);
-					operationMsg.setSessionNumber(current_session_number);
-					out.writeObject(operationMsg);
-					//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+msg);
-				}
+				if (msg.type() == MsgType.BOOTSTRAP){
+					// the partner sent a snapshot instead of its operations
+					completed = receiveBootstrap((MessageBootstrap) msg, n, current_session_number, framesIn, out);
+				} else if (msg.type() == MsgType.AE_REQUEST){
+					// partner's summary and ack
+					MessageAErequest partner = (MessageAErequest) msg;
+					ackBaselines.received(n.getId(), partner.getAck());
+					OperationBatches.negotiateCompression(framesOut, partner, serverData);
 
-				// send and "end of TSAE session" message
-				MessageEndTSAE endTSAEMsg = new MessageEndTSAE();
-				endTSAEMsg.setSessionNumber(current_session_number);
-				out.writeObject(endTSAEMsg);
-				//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+msg);
+					if (shouldBootstrap(partner)) {
+						// a snapshot replaces the operations (and the "end of TSAE session" message)
+						Bootstrap.send(out, framesOut, connection.getSocket(), current_session_number, serverData, partner.getSummary());
+					} else if (serverData.canServe(partner.getSummary())) {
+						// send operations (in batches)
+						OperationBatches.send(out, serverData.getLog().listNewer(partner.getSummary()), current_session_number, serverData.getSessionStats());
 
-				// receive message to inform about the ending of the TSAE session
-				msg = (Message) in.readObject();
-				//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
-				if (msg.type() == MsgType.END_TSAE){
-					synchronized (serverData) {
-						serverData.getSummary().updateMax(partner.getSummary());
-						serverData.getAck().updateMax(partner.getAck());
-						serverData.getLog().purgeLog(serverData.getAck());
+						// send and "end of TSAE session" message
+						MessageEndTSAE endTSAEMsg = new MessageEndTSAE();
+						endTSAEMsg.setSessionNumber(current_session_number);
+						out.writeObject(endTSAEMsg);
+						//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+endTSAEMsg);
+					} else {
+						// the log does not have the operations that the partner misses
+						return false;
 					}
-				}
 
-			}			
-			socket.close();
+					// receive message to inform about the ending of the TSAE session
+					msg = (Message) in.readObject();
+					//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
+					if (msg.type() == MsgType.END_TSAE){
+						serverData.endTSAESession(partner.getSummary(), partner.getAck());
+						// partner has merged localAck
+						ackBaselines.acknowledged(n.getId(), localAck);
+						completed = true;
+					}
+				}
+			}
 		} catch (ClassNotFoundException e) {
 			// TODO Auto-generated catch block
 			LSimLogger.log(Level.FATAL, "[TSAESessionOriginatorSide] [session: "+current_session_number+"]" + e.getMessage());
 			e.printStackTrace();
 			System.exit(1);
-		}catch (IOException e) {}
+		}catch (IOException e) {
+			failure = e;
+		} finally {
+			if (deadline != null) {
+				deadline.cancel();
+			}
+			OperationBatches.logCompression("[TSAESessionOriginatorSide] [session: "+current_session_number+"]", framesOut, framesIn);
+			if (mayRetry && failure != null && !(failure instanceof InterruptedIOException)
+					&& connection != null && connection.isReused() && !connection.hasReceived()
+					&& (deadline == null || !deadline.hasExpired())) {
+				LSimLogger.log(Level.DEBUG, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] connection closed by the partner: " + failure);
+				retry = true;
+			} else if (completed) {
+				serverData.getSessionStats().completed();
+				serverData.setBootstrapDeclined(n.getId(), false);
+			} else {
+				if (progress != null) {
+					// the operations received until the abort are not requested again
+					progress.commit(serverData);
+				}
+				// the partner may not have merged the ack sent to it
+				serverData.getAckBaselines().forget(n.getId());
+				serverData.getSessionStats().failed(failure, deadline);
+				if (deadline != null && deadline.hasExpired()) {
+					LSimLogger.log(Level.WARN, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] aborted: session deadline expired");
+				}
+			}
+			if (connection != null) {
+				connections.release(n, completed);
+			}
+			if (!retry) {
+				serverData.getPartnerSelection().sessionEnded(n, completed);
+			}
+		}
 
 		
 		//LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] End TSAE session");
+		return retry;
+	}
+
+	/**
+	 * Duplex session: once the summaries have been exchanged both sides
+	 * send their operations at the same time (the operations for the partner
+	 * are sent from another thread while the ones from the partner are
+	 * received). The partner confirms the end of the session with a second
+	 * "end of TSAE session" message once it has received all the operations.
+	 * @return true if the session ended properly
+	 */
+	private boolean duplexSession(Host n, int current_session_number, Socket socket, ObjectInputStream_DS in, ObjectOutputStream_DS out, FramedInputStream framesIn, FramedOutputStream framesOut, TimestampMatrix localAck, SessionProgress progress) throws IOException, ClassNotFoundException{
+		// receive partner's summary and ack
+		Message msg = (Message) in.readObject();
+		if (msg.type() == MsgType.BOOTSTRAP) {
+			// the partner sent a snapshot instead of its summary and operations
+			return receiveBootstrap((MessageBootstrap) msg, n, current_session_number, framesIn, out);
+		}
+		if (msg.type() != MsgType.AE_REQUEST) {
+			return false;
+		}
+		MessageAErequest partner = (MessageAErequest) msg;
+		AckBaselines ackBaselines = serverData.getAckBaselines();
+		ackBaselines.received(n.getId(), partner.getAck());
+		OperationBatches.negotiateCompression(framesOut, partner, serverData);
+
+		if (shouldBootstrap(partner)) {
+			// a snapshot replaces the operations (and the "end of TSAE session" message)
+			Bootstrap.send(out, framesOut, socket, current_session_number, serverData, partner.getSummary());
+			msg = OperationBatches.receive(in, serverData, progress);
+		} else if (serverData.canServe(partner.getSummary())) {
+			// send operations (and "end of TSAE session") while receiving partner's operations
+			Future<Void> sending = OperationBatches.sendAsync(out, serverData.getLog().listNewer(partner.getSummary()), current_session_number, serverData.getSessionStats());
+			msg = OperationBatches.receive(in, serverData, progress);
+			OperationBatches.await(sending);
+		} else {
+			// the log does not have the operations that the partner misses
+			return false;
+		}
+
+		// receive message to confirm that partner has received all the operations
+		if (msg.type() == MsgType.END_TSAE){
+			msg = (Message) in.readObject();
+			if (msg.type() == MsgType.END_TSAE){
+				serverData.endTSAESession(partner.getSummary(), partner.getAck());
+				// partner has merged localAck
+				ackBaselines.acknowledged(n.getId(), localAck);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the partner accepts a snapshot and should be sent one
+	 * instead of the operations it misses
+	 */
+	private boolean shouldBootstrap(MessageAErequest partner){
+		return partner.acceptsBootstrap() && serverData.shouldBootstrap(partner.getSummary());
+	}
+
+	/**
+	 * installs the snapshot sent by the partner and ends the session. A
+	 * discarded snapshot fails the session (the partner does not receive
+	 * the "end of TSAE session" message)
+	 * @return true if the snapshot has been installed
+	 */
+	private boolean receiveBootstrap(MessageBootstrap msg, Host n, int current_session_number, FramedInputStream framesIn, ObjectOutputStream_DS out) throws IOException{
+		if (!Bootstrap.receive(msg, n.getId(), framesIn, serverData)) {
+			return false;
+		}
+		MessageEndTSAE endTSAEMsg = new MessageEndTSAE();
+		endTSAEMsg.setSessionNumber(current_session_number);
+		out.writeObject(endTSAEMsg);
+		return true;
 	}
 }
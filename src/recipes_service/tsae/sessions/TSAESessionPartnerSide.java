@@ -21,21 +21,28 @@
 package recipes_service.tsae.sessions;
 
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
+import communication.FramedInputStream;
+import communication.FramedOutputStream;
 import communication.ObjectInputStream_DS;
 import communication.ObjectOutputStream_DS;
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import recipes_service.ServerData;
 import recipes_service.communication.Message;
+import recipes_service.communication.MessageAEdigest;
 import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageBootstrap;
 import recipes_service.communication.MessageEndTSAE;
-import recipes_service.communication.MessageOperation;
+import recipes_service.communication.MessagePush;
 import recipes_service.communication.MsgType;
 import recipes_service.data.Operation;
+import recipes_service.tsae.data_structures.TSAESnapshot;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
 
@@ -46,66 +53,141 @@ import lsim.library.api.LSimLogger;
  * December 2012
  *
  */
-public class TSAESessionPartnerSide extends Thread {
+public class TSAESessionPartnerSide implements Runnable {
 	
 	private final Socket socket;
 	private final ServerData serverData;
+	// receives the connection when a session ends properly, to wait for the next
+	// session from the same originator (null: the connection is closed)
+	private final IdleConnectionHandler idleHandler;
+
+	/**
+	 * Receives connections whose last session ended properly
+	 */
+	public interface IdleConnectionHandler {
+		void idle(TSAESessionPartnerSide session);
+	}
 	
 	public TSAESessionPartnerSide(Socket socket, ServerData serverData) {
-		super("TSAEPartnerSideThread");
+		this(socket, serverData, null);
+	}
+
+	public TSAESessionPartnerSide(Socket socket, ServerData serverData, IdleConnectionHandler idleHandler) {
 		this.socket = socket;
 		this.serverData = serverData;
+		this.idleHandler = idleHandler;
 	}
 
+	public Socket getSocket() {
+		return socket;
+	}
+
+	/**
+	 * serves one TSAE session received through the connection
+	 */
 	public void run() {
 		Message msg;
 
 		int currentSessionNumber = -1;
+		// host id of the originator of the session (once known)
+		String originatorId = null;
+		// true if the session ended properly (the connection can be used for more sessions)
+		boolean completed = false;
+		// true if the connection carried pushed operations instead of a session
+		boolean push = false;
+		SessionDeadline deadline = null;
+		IOException failure = null;
+		FramedOutputStream framesOut = null;
+		FramedInputStream framesIn = null;
+		// operations received (and applied) so far
+		SessionProgress progress = null;
 		try {
-			ObjectOutputStream_DS out = new ObjectOutputStream_DS(socket.getOutputStream());
-			ObjectInputStream_DS in = new ObjectInputStream_DS(socket.getInputStream());
-			TimestampVector localSummary;
-			TimestampMatrix localAck;
-			// receive request from originator and update local state
-			synchronized (serverData) {
-				localSummary = serverData.getSummary().clone();
-				serverData.getAck().update(serverData.getId(), localSummary);
-				localAck = serverData.getAck().clone();
-			}
-
+			socket.setSoTimeout(serverData.getPeerConnections().getReadTimeout());
+			deadline = SessionDeadline.start(socket, serverData.getSessionTimeout());
+			framesIn = new FramedInputStream(socket.getInputStream());
+			ObjectInputStream_DS in = new ObjectInputStream_DS(framesIn);
 			// receive originator's summary and ack
 			msg = (Message) in.readObject();
+			if (msg.type() == MsgType.PUSH) {
+				// one-way: not a TSAE session (nothing can be written to the originator)
+				List<Operation> operations = ((MessagePush) msg).getOperations();
+				serverData.receivePushedOperations(operations);
+				serverData.getSessionStats().operationsReceived(operations.size());
+				push = true;
+				completed = true;
+				return;
+			}
+			// the output stream goes after the first message: pushes do not read from the partner
+			framesOut = new FramedOutputStream(socket.getOutputStream());
+			ObjectOutputStream_DS out = new ObjectOutputStream_DS(framesOut);
+			// local summary and ack to send to originator
+			TSAESnapshot snapshot = serverData.getTSAESnapshot();
+			TimestampVector localSummary = snapshot.getSummary();
+			TimestampMatrix localAck = snapshot.getAck();
+			progress = new SessionProgress(serverData, localSummary);
+
 			currentSessionNumber = msg.getSessionNumber();
+			if (msg.type() == MsgType.AE_DIGEST) {
+				// reply with the local digest: if both sides are in sync the session ends here
+				MessageAEdigest originator = (MessageAEdigest) msg;
+				originatorId = originator.getHostId();
+				MessageAEdigest digest = new MessageAEdigest(serverData.getId(), snapshot);
+				digest.setSessionNumber(currentSessionNumber);
+				out.writeObject(digest);
+				if (digest.inSyncWith(originator)) {
+					// originator's ack is equal to localAck
+					serverData.getAckBaselines().inSync(originator.getHostId(), localAck);
+					serverData.getSessionStats().inSync();
+					completed = true;
+					return;
+				}
+				msg = (Message) in.readObject();
+			}
 			//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] TSAE session");
 			//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] received message: "+ msg);
 			if (msg.type() == MsgType.AE_REQUEST) {
 				MessageAErequest originator = (MessageAErequest) msg;
-				List<Operation> operations = serverData.getLog().listNewer(originator.getSummary());
-				
-				// send operations
-				for (Operation op: operations) {
-					MessageOperation operationMsg = new MessageOperation(op);
-					operationMsg.setSessionNumber(currentSessionNumber);
-					out.writeObject(operationMsg);
-					//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] sent message: " + operationMsg);
+				originatorId = originator.getHostId();
+				AckBaselines ackBaselines = serverData.getAckBaselines();
+				ackBaselines.received(originator.getHostId(), originator.getAck());
+				OperationBatches.negotiateCompression(framesOut, originator, serverData);
+				if (serverData.shouldBootstrap(originator.getSummary())) {
+					if (originator.acceptsBootstrap()) {
+						// a snapshot replaces the rest of the session
+						Bootstrap.send(out, framesOut, socket, currentSessionNumber, serverData, originator.getSummary());
+						msg = (Message) in.readObject();
+						completed = msg.type() == MsgType.END_TSAE;
+						return;
+					}
+					if (!serverData.canServe(originator.getSummary())) {
+						// the log does not have the operations that the originator misses
+						return;
+					}
 				}
+				List<Operation> operations = serverData.getLog().listNewer(originator.getSummary());
 
-				// send to originator: local's summary and ack
-				msg = new MessageAErequest(localSummary, localAck);
-				msg.setSessionNumber(currentSessionNumber);
-				out.writeObject(msg);
-				//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] sent message: "+ msg);
+				// local's summary and ack (only the rows that the originator may not have)
+				MessageAErequest request = new MessageAErequest(serverData.getId(), localSummary, ackBaselines.deltaFor(originator.getHostId(), localAck));
+				request.setCompression(serverData.getCompressionName());
+				request.setBootstrap(serverData.acceptsBootstrapFrom(originatorId));
+				request.setSessionNumber(currentSessionNumber);
 
-				// receive operations
-				msg = (Message) in.readObject();
-				//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] received message: "+ msg);
+				if (originator.isDuplex()) {
+					// send summary and ack first; then send operations while receiving originator's ones
+					out.writeObject(request);
+					Future<Void> sending = OperationBatches.sendAsync(out, operations, currentSessionNumber, serverData.getSessionStats());
+					msg = OperationBatches.receive(in, serverData, progress);
+					OperationBatches.await(sending);
+				} else {
+					// send operations (in batches)
+					OperationBatches.send(out, operations, currentSessionNumber, serverData.getSessionStats());
 
-				while (msg.type() == MsgType.OPERATION){
-					MessageOperation msgOperation = (MessageOperation) msg;
-					synchronized (serverData) {
-						serverData.performOperation(msgOperation.getOperation());
-					}
-					msg = (Message) in.readObject();
+					// send to originator: local's summary and ack
+					out.writeObject(request);
+					//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] sent message: "+ request);
+
+					// receive operations
+					msg = OperationBatches.receive(in, serverData, progress);
 					//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] received message: "+ msg);
 				}
 				
@@ -115,23 +197,66 @@ public class TSAESessionPartnerSide extends Thread {
 					MessageEndTSAE endTSAEMsg = new MessageEndTSAE();
 					endTSAEMsg.setSessionNumber(currentSessionNumber);
 					out.writeObject(endTSAEMsg);
-					//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] sent message: "+ msg);
-					synchronized (serverData) {
-						serverData.getSummary().updateMax(originator.getSummary());
-						serverData.getAck().updateMax(originator.getAck());
-						serverData.getLog().purgeLog(serverData.getAck());
+					//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] sent message: "+ endTSAEMsg);
+					serverData.endTSAESession(originator.getSummary(), originator.getAck());
+					completed = true;
+				} else if (msg.type() == MsgType.BOOTSTRAP){
+					// the originator sent a snapshot instead of its operations (a discarded
+					// one fails the session: the originator does not receive the "end of
+					// TSAE session" message)
+					if (Bootstrap.receive((MessageBootstrap) msg, originatorId, framesIn, serverData)) {
+						MessageEndTSAE endTSAEMsg = new MessageEndTSAE();
+						endTSAEMsg.setSessionNumber(currentSessionNumber);
+						out.writeObject(endTSAEMsg);
+						completed = true;
 					}
 				}
 				
 			}
-			socket.close();		
 		} catch (ClassNotFoundException e) {
 			// TODO Auto-generated catch block
 			LSimLogger.log(Level.FATAL, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"]" + e.getMessage());
 			e.printStackTrace();
 			System.exit(1);
-		}	catch (IOException ignored) {}
+		}	catch (IOException e) {
+			failure = e;
+		} finally {
+			if (deadline != null) {
+				deadline.cancel();
+			}
+			OperationBatches.logCompression("[TSAESessionPartnerSide] [session: "+currentSessionNumber+"]", framesOut, framesIn);
+			if (completed) {
+				if (!push) {
+					serverData.getSessionStats().completed();
+					serverData.setBootstrapDeclined(originatorId, false);
+				}
+			} else if (currentSessionNumber < 0 && failure instanceof EOFException) {
+				// the originator closed an idle connection: there was no session
+			} else {
+				if (progress != null) {
+					// the operations received until the abort are not requested again
+					progress.commit(serverData);
+				}
+				// the originator may not have merged the ack sent to it
+				serverData.getAckBaselines().forget(originatorId);
+				serverData.getSessionStats().failed(failure, deadline);
+				if (deadline != null && deadline.hasExpired()) {
+					LSimLogger.log(Level.WARN, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] aborted: session deadline expired");
+				}
+			}
+			if (completed && idleHandler != null) {
+				idleHandler.idle(this);
+			} else {
+				close();
+			}
+		}
 		
 		//LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+currentSessionNumber+"] End TSAE session");
 	}
+
+	public void close() {
+		try {
+			socket.close();
+		} catch (IOException ignored) {}
+	}
 }
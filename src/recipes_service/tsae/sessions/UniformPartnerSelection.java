@@ -0,0 +1,50 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import recipes_service.communication.Host;
+import recipes_service.tsae.data_structures.TSAESnapshot;
+
+/**
+ * Chooses partners uniformly at random (the original behaviour of TSAE).
+ */
+public class UniformPartnerSelection implements PartnerSelection {
+
+	private final Random rnd = new Random();
+
+	@Override
+	public List<Host> select(List<Host> partners, int num, TSAESnapshot snapshot) {
+		synchronized (rnd) {
+			Collections.shuffle(partners, rnd);
+		}
+		return new ArrayList<Host>(partners.subList(0, Math.min(num, partners.size())));
+	}
+
+	@Override
+	public void sessionEnded(Host partner, boolean completed) {
+	}
+}